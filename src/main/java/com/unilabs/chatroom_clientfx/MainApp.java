@@ -66,12 +66,20 @@ public class MainApp extends Application {
             primaryStage.setTitle("Distributed Chat Client (UUID: " + model.getClientUuid() +")");
             primaryStage.setScene(scene);
 
+            // Window focus counts as user activity, relay polling speeds up again
+            primaryStage.focusedProperty().addListener((obs, wasFocused, isFocused) -> {
+                if (isFocused) model.notifyUserActivity();
+            });
+
             // Handle window close request
             primaryStage.setOnCloseRequest(event -> {
                 System.out.println("Window closing, initiating shutdown...");
-                model.shutdown(); // Clean up resources
-                Platform.exit(); // Exit JavaFX application
-                System.exit(0); // Ensure JVM termination if background threads linger
+                // Clean up resources off the FX thread, the window closes right away
+                model.shutdownAsync().whenComplete((ignored, error) -> {
+                    if (error != null) System.err.println("Error during shutdown: " + error.getMessage());
+                    Platform.exit(); // Exit JavaFX application
+                    System.exit(0); // Ensure JVM termination if background threads linger
+                });
             });
 
             primaryStage.show();
@@ -93,7 +101,9 @@ public class MainApp extends Application {
         // We need to ensure model shutdown is called if not handled by onCloseRequest
         System.out.println("Application stop() method called.");
         if (model != null) {
-            model.shutdown();
+            // Never block the FX thread here: starts the shutdown, or gets the one the close request started.
+            // Its thread isn't a daemon, the JVM exits once it's done
+            model.shutdownAsync();
         }
         super.stop();
     }
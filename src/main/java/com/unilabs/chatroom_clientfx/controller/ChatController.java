@@ -1,26 +1,49 @@
 package com.unilabs.chatroom_clientfx.controller;
 
 import com.unilabs.chatroom_clientfx.model.Chat;
+import com.unilabs.chatroom_clientfx.model.ChatRoom;
+import com.unilabs.chatroom_clientfx.model.ConnectionState;
 import com.unilabs.chatroom_clientfx.model.records.ServerInfo;
 import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
+import javafx.beans.binding.BooleanBinding;
+import javafx.beans.binding.StringBinding;
 import javafx.collections.ListChangeListener;
 import javafx.fxml.FXML;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.control.*;
+import javafx.scene.control.skin.VirtualFlow;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
 import javafx.util.StringConverter;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class ChatController {
 
     @FXML private ComboBox<ServerInfo> serverComboBox;
     @FXML private TextField nicknameField;
     @FXML private Button connectButton;
+    @FXML private Button openRoomButton;
     @FXML private Button refreshButton;
     @FXML private Label statusLabel;
-    @FXML private TextArea chatArea;
+    @FXML private TabPane roomTabs;
+    @FXML private Tab mainTab;
+    @FXML private ListView<String> chatList;
     @FXML private TextField messageInput;
     @FXML private Button sendButton;
 
     private Chat model;
+    private ServerInfo lastSelectedServer; // Restored when the server list is re-ranked
+    private final Map<ChatRoom, Tab> roomTabsByRoom = new HashMap<>(); // Tabs of the rooms opened next to the main one
 
     // Called after FXML fields are injected
     public void initialize() {
@@ -28,7 +51,11 @@ public class ChatController {
         serverComboBox.setConverter(new StringConverter<>() {
             @Override
             public String toString(ServerInfo serverInfo) {
-                return (serverInfo == null) ? null : serverInfo.toString(); // Use the record's toString
+                if (serverInfo == null) return null;
+                // Use the record's toString, plus the measured latency once the probe answered
+                Long rtt = (model == null) ? null : model.serverLatencyProperty().get(serverInfo.uuid());
+                if (rtt == null) return serverInfo.toString();
+                return serverInfo + (rtt >= 0 ? " - " + rtt + " ms" : " - unreachable");
             }
 
             @Override
@@ -41,13 +68,68 @@ public class ChatController {
         // Disable send button initially
         sendButton.setDisable(true);
         messageInput.setDisable(true);
+
+        configureChatList(chatList, true);
+    }
+
+    /**
+     * The chat view is a virtualized list, only the visible rows are laid out
+     * Rows wrap to the list width, selection is multi-row and can be copied
+     *
+     * @param chatList The room's list
+     * @param scrollback Offer loading earlier messages from the journal (main room)
+     */
+    private void configureChatList(ListView<String> chatList, boolean scrollback) {
+        chatList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        chatList.setCellFactory(list -> {
+            ListCell<String> cell = new ListCell<>() {
+                @Override
+                protected void updateItem(String item, boolean empty) {
+                    super.updateItem(item, empty);
+                    setText(empty ? null : item);
+                }
+            };
+            cell.setWrapText(true);
+            // Never wider than the viewport: the list stretches cells to it (its width minus insets and scrollbar,
+            // whatever the skin), so long lines wrap there instead of scrolling sideways
+            cell.setPrefWidth(0);
+            return cell;
+        });
+
+        // Copy: Ctrl/Cmd+C and a context menu
+        KeyCombination copyKey = new KeyCodeCombination(KeyCode.C, KeyCombination.SHORTCUT_DOWN);
+        chatList.setOnKeyPressed(event -> {
+            if (copyKey.match(event)) {
+                copySelectedMessages(chatList);
+                event.consume();
+            }
+        });
+        MenuItem copyItem = new MenuItem("Copy");
+        copyItem.setOnAction(event -> copySelectedMessages(chatList));
+        MenuItem selectAllItem = new MenuItem("Select All");
+        selectAllItem.setOnAction(event -> chatList.getSelectionModel().selectAll());
+        ContextMenu menu = new ContextMenu(copyItem, selectAllItem);
+        if (scrollback) {
+            MenuItem earlierItem = new MenuItem("Load Earlier Messages");
+            earlierItem.setOnAction(event -> model.loadEarlierMessages());
+            menu.getItems().addAll(new SeparatorMenuItem(), earlierItem);
+        }
+        chatList.setContextMenu(menu);
+    }
+
+    private void copySelectedMessages(ListView<String> chatList) {
+        var selected = chatList.getSelectionModel().getSelectedItems();
+        if (selected.isEmpty()) return;
+        ClipboardContent content = new ClipboardContent();
+        content.putString(String.join("\n", selected));
+        Clipboard.getSystemClipboard().setContent(content);
     }
 
     // Inject the model (called from MainApp)
     public void setModel(Chat model) {
         this.model = model;
         bindViewModel();
-        model.fetchServerList(); // Initial fetch
+        model.loadServerList(); // Cached list first, revalidated in the background
     }
 
     private void bindViewModel() {
@@ -55,9 +137,19 @@ public class ChatController {
         // Use Bindings.bindContentBidirectional or listeners for robustness if needed,
         // but simple binding works for one-way display from model.
         Bindings.bindContent(serverComboBox.getItems(), model.serverListProperty());
+        // Re-ranking by latency replaces the items, keep the user's pick selected
+        serverComboBox.getSelectionModel().selectedItemProperty().addListener((obs, oldServer, newServer) -> {
+            if (newServer != null) lastSelectedServer = newServer;
+        });
+        serverComboBox.getItems().addListener((ListChangeListener<ServerInfo>) change -> {
+            if (serverComboBox.getSelectionModel().getSelectedItem() == null && lastSelectedServer != null
+                    && serverComboBox.getItems().contains(lastSelectedServer)) {
+                serverComboBox.getSelectionModel().select(lastSelectedServer);
+            }
+        });
 
-        // Bind Status Label
-        statusLabel.textProperty().bind(model.connectionStatusProperty());
+        // Bind Status Label, with the direct heartbeat RTT once measured
+        statusLabel.textProperty().bind(statusBinding(model.getMainRoom()));
 
         // Bind Button states and input fields based on connection status
         connectButton.textProperty().bind(Bindings.when(model.connectedProperty())
@@ -67,26 +159,58 @@ public class ChatController {
         sendButton.disableProperty().bind(model.connectedProperty().not());
         messageInput.disableProperty().bind(model.connectedProperty().not());
 
-        // Disable server/nickname selection when connected
-        serverComboBox.disableProperty().bind(model.connectedProperty());
+        // Disable nickname selection when connected, the server list stays usable to open more rooms in tabs
         nicknameField.disableProperty().bind(model.connectedProperty());
         refreshButton.disableProperty().bind(model.connectedProperty());
 
 
-        // Listen for new messages and append to TextArea
-        model.chatMessagesProperty().addListener((ListChangeListener.Change<? extends String> change) -> {
-            Platform.runLater(() -> { // Ensure UI update is on FX thread
-                while (change.next()) {
-                    if (change.wasAdded()) {
-                        for (String msg : change.getAddedSubList()) {
-                            chatArea.appendText(msg + "\n");
-                        }
-                    }
+        // The list view renders the model's messages directly
+        showMessages(chatList, model.getMainRoom());
+    }
+
+    /**
+     * @param room A room
+     * @return Its status, with the direct heartbeat RTT once measured
+     */
+    private static StringBinding statusBinding(ChatRoom room) {
+        return Bindings.createStringBinding(() -> {
+            long rtt = room.roundTripMillisProperty().get();
+            return room.connectionStatusProperty().get() + (rtt >= 0 ? " - RTT " + rtt + " ms" : "");
+        }, room.connectionStatusProperty(), room.roundTripMillisProperty());
+    }
+
+    /**
+     * Render a room's messages and follow new ones, unless the user scrolled up to read older ones
+     * @param chatList The room's list
+     * @param room The room
+     */
+    private void showMessages(ListView<String> chatList, ChatRoom room) {
+        chatList.setItems(room.chatMessagesProperty());
+        room.chatMessagesProperty().addListener((ListChangeListener.Change<? extends String> change) -> {
+            int added = 0;
+            while (change.next()) {
+                if (change.wasAdded() && change.getTo() == change.getList().size()) { // Appended, not scrollback
+                    added += change.getAddedSize();
                 }
-            });
+            }
+            if (added > 0 && wasShowingLastMessage(chatList, added)) {
+                chatList.scrollTo(chatList.getItems().size() - 1);
+            }
         });
     }
 
+    /**
+     * @param chatList The room's list
+     * @param added How many messages were just appended
+     * @return True if the last message before the append was visible (or nothing is laid out yet)
+     */
+    private static boolean wasShowingLastMessage(ListView<String> chatList, int added) {
+        if (!(chatList.lookup(".virtual-flow") instanceof VirtualFlow<?> flow)) return true;
+        IndexedCell<?> lastVisible = flow.getLastVisibleCell();
+        int previousLastIndex = chatList.getItems().size() - added - 1;
+        return lastVisible == null || lastVisible.getIndex() >= previousLastIndex;
+    }
+
 
     @FXML
     private void handleConnectButton() {
@@ -111,10 +235,111 @@ public class ChatController {
         }
     }
 
+    @FXML
+    private void handleOpenRoomButton() {
+        ServerInfo selectedServer = serverComboBox.getSelectionModel().getSelectedItem();
+        String nickname = nicknameField.getText();
+
+        if (selectedServer == null) {
+            showAlert(Alert.AlertType.WARNING, "Connection Error", "Please select a server.");
+            return;
+        }
+        if (nickname == null || nickname.trim().isEmpty()) {
+            showAlert(Alert.AlertType.WARNING, "Connection Error", "Please enter a nickname.");
+            return;
+        }
+
+        // A tab left disconnected from this server connects again instead of a second tab opening
+        for (Map.Entry<ChatRoom, Tab> entry : roomTabsByRoom.entrySet()) {
+            ServerInfo tabServer = (ServerInfo) entry.getValue().getUserData();
+            if (tabServer.uuid().equals(selectedServer.uuid())
+                    && entry.getKey().connectionStateProperty().get() == ConnectionState.NONE) {
+                entry.getKey().connectToServer(selectedServer, nickname);
+                roomTabs.getSelectionModel().select(entry.getValue());
+                return;
+            }
+        }
+
+        ChatRoom room = model.openRoom(selectedServer, nickname); // The room that has it already if there's one
+        Tab tab = room == model.getMainRoom() ? mainTab
+                : roomTabsByRoom.computeIfAbsent(room, r -> createRoomTab(r, selectedServer, nickname));
+        roomTabs.getSelectionModel().select(tab);
+    }
+
+    /**
+     * A tab for a room opened next to the main one: its status, messages and input
+     * Closing the tab leaves the room. While the room is disconnected (connection failed or lost for good)
+     * the header offers to reconnect or close it.
+     *
+     * @param room The room
+     * @param server Its server, names the tab
+     * @param nickname Used again for a reconnect
+     * @return The tab, already added
+     */
+    private Tab createRoomTab(ChatRoom room, ServerInfo server, String nickname) {
+        Label status = new Label();
+        status.textProperty().bind(statusBinding(room));
+        status.setMaxWidth(Double.MAX_VALUE);
+        HBox.setHgrow(status, Priority.ALWAYS);
+
+        BooleanBinding disconnected = room.connectionStateProperty().isEqualTo(ConnectionState.NONE);
+        Button reconnect = new Button("Reconnect");
+        reconnect.setOnAction(event -> room.connectToServer(server, nickname));
+        Button close = new Button("Close");
+        for (Button button : new Button[] {reconnect, close}) {
+            button.visibleProperty().bind(disconnected);
+            button.managedProperty().bind(disconnected); // No gap while connected
+        }
+
+        ListView<String> messages = new ListView<>();
+        messages.setFocusTraversable(false);
+        configureChatList(messages, false);
+        showMessages(messages, room);
+
+        TextField input = new TextField();
+        input.setPromptText("Type message here...");
+        Button send = new Button("Send");
+        input.disableProperty().bind(room.connectedProperty().not());
+        send.disableProperty().bind(room.connectedProperty().not());
+        input.setOnAction(event -> sendFromInput(room, input));
+        send.setOnAction(event -> sendFromInput(room, input));
+        HBox.setHgrow(input, Priority.ALWAYS);
+        HBox inputBar = new HBox(10.0, input, send);
+        inputBar.setPadding(new Insets(10.0));
+
+        HBox header = new HBox(10.0, status, reconnect, close);
+        header.setAlignment(Pos.CENTER_LEFT);
+        header.setPadding(new Insets(10.0, 10.0, 0, 10.0));
+        BorderPane.setMargin(messages, new Insets(5.0, 10.0, 0, 10.0));
+
+        Tab tab = new Tab(server.name(), new BorderPane(messages, header, null, inputBar, null));
+        tab.setUserData(server);
+        tab.setOnClosed(event -> leaveRoom(room));
+        close.setOnAction(event -> {
+            roomTabs.getTabs().remove(tab); // Doesn't fire onClosed
+            leaveRoom(room);
+        });
+        roomTabs.getTabs().add(tab);
+        return tab;
+    }
+
+    private void leaveRoom(ChatRoom room) {
+        roomTabsByRoom.remove(room);
+        model.closeRoom(room); // Disconnects it
+    }
+
+    private void sendFromInput(ChatRoom room, TextField input) {
+        String message = input.getText();
+        if (message != null && !message.trim().isEmpty()) {
+            room.sendMessage(message);
+            input.clear();
+        }
+        input.requestFocus(); // Keep focus on input field
+    }
+
     @FXML
     private void handleRefreshButton() {
-        serverComboBox.getItems().clear(); // Clear old list visually
-        model.fetchServerList();
+        model.fetchServerList(); // Old list stays usable until the new one arrives
     }
 
 
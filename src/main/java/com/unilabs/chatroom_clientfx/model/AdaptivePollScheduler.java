@@ -0,0 +1,123 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs a poll task with an activity based delay
+ * Polls fast right after activity, then doubles the delay while nothing happens, up to a ceiling
+ */
+public class AdaptivePollScheduler {
+
+    private final ScheduledExecutorService executor;
+    private final Supplier<? extends CompletionStage<Boolean>> pollTask; // Completes with true when the poll saw activity (messages)
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+
+    // All guarded by "this"
+    private long currentDelayMillis;
+    private ScheduledFuture<?> pending;
+    private boolean running;
+    private boolean pollInFlight;
+    private boolean activityDuringPoll;
+
+    /**
+     * @param executor Executor that runs the delay timer and starts the poll task
+     * @param pollTask The (asynchronous) poll, completes with true if it received something
+     * @param minDelayMillis Delay used right after activity
+     * @param maxDelayMillis Ceiling for the back-off while the room is quiet
+     */
+    public AdaptivePollScheduler(ScheduledExecutorService executor, Supplier<? extends CompletionStage<Boolean>> pollTask,
+                                 long minDelayMillis, long maxDelayMillis) {
+        if (minDelayMillis <= 0 || maxDelayMillis < minDelayMillis) {
+            throw new IllegalArgumentException("Invalid poll delays: min=" + minDelayMillis + ", max=" + maxDelayMillis);
+        }
+        this.executor = executor;
+        this.pollTask = pollTask;
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.currentDelayMillis = minDelayMillis;
+    }
+
+    /**
+     * Start polling, the first poll runs immediately
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        currentDelayMillis = minDelayMillis;
+        schedule(0);
+    }
+
+    /**
+     * Stop polling, a poll already running is allowed to finish but won't be re-armed
+     */
+    public synchronized void stop() {
+        running = false;
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * Something happened (user sent a message, window got focus...), go back to the fast delay
+     * If we're waiting on a long back-off delay the next poll is brought forward
+     */
+    public synchronized void onActivity() {
+        if (!running) return;
+        currentDelayMillis = minDelayMillis;
+        if (pollInFlight) {
+            activityDuringPoll = true; // The running poll will re-arm with the fast delay
+            return;
+        }
+        if (pending != null && pending.getDelay(TimeUnit.MILLISECONDS) > minDelayMillis) {
+            pending.cancel(false);
+            schedule(minDelayMillis);
+        }
+    }
+
+    private void schedule(long delayMillis) {
+        try {
+            pending = executor.schedule(this::runPoll, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            pending = null; // Executor was shut down under us, nothing left to poll
+        }
+    }
+
+    private void runPoll() {
+        synchronized (this) {
+            if (!running) return;
+            pollInFlight = true;
+            activityDuringPoll = false;
+        }
+
+        CompletionStage<Boolean> poll;
+        try {
+            poll = pollTask.get();
+        } catch (Exception e) {
+            System.err.println("Unexpected error in adaptive poll task: " + e.getMessage());
+            afterPoll(false);
+            return;
+        }
+        // The next poll is only armed once this one completes, no thread waits meanwhile
+        poll.whenComplete((active, error) -> afterPoll(error == null && Boolean.TRUE.equals(active)));
+    }
+
+    private void afterPoll(boolean active) {
+        synchronized (this) {
+            pollInFlight = false;
+            if (!running || executor.isShutdown()) return;
+            if (active || activityDuringPoll) {
+                currentDelayMillis = minDelayMillis;
+            } else {
+                currentDelayMillis = Math.min(currentDelayMillis * 2, maxDelayMillis); // Exponential back-off
+            }
+            schedule(currentDelayMillis);
+        }
+    }
+}
@@ -0,0 +1,1553 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import com.unilabs.chatroom_clientfx.model.direct.DirectSession;
+import com.unilabs.chatroom_clientfx.model.dto.RelayMessageDTO;
+import com.unilabs.chatroom_clientfx.model.journal.OutboundQueue;
+import com.unilabs.chatroom_clientfx.model.relay.AsyncRelayClient;
+import com.unilabs.chatroom_clientfx.model.relay.RelaySendQueue;
+import com.unilabs.chatroom_clientfx.model.records.ServerInfo;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The chat logic without any UI: discovery, direct and relay transports, reconnects and the outbound queue
+ *
+ * Doesn't touch the JavaFX toolkit, so it also runs headless (bots, load generators, benchmarks).
+ * State changes are reported to {@link Listener}s: status, connection and server list events on the event executor
+ * given to the constructor, in order. Received lines and notices are reported straight from the network threads,
+ * a listener that needs them on one thread queues them itself.
+ * One engine is one session, engines of a {@link ChatSessionManager} run side by side on shared {@link ChatTransports}.
+ */
+public class ChatEngine {
+
+    // Relay sends queued within this window go out as one batched POST, -Dchatroom.relay.send.coalesceMillis
+    private static final long RELAY_SEND_COALESCE_MILLIS = Long.getLong("chatroom.relay.send.coalesceMillis", 30L);
+    private static final int RELAY_SEND_MAX_BATCH = 50;
+    // Head start given to the direct attempt before the relay handshake joins the race, -Dchatroom.connect.relayDelayMillis
+    private static final long CONNECT_RELAY_HEAD_START_MILLIS = Long.getLong("chatroom.connect.relayDelayMillis", 300L);
+    // Direct sessions switch to binary framing when the server offers it, -Dchatroom.direct.framing=text to stay on text
+    private static final boolean DIRECT_BINARY_FRAMING = !"text".equalsIgnoreCase(System.getProperty("chatroom.direct.framing", "binary"));
+    // Direct heartbeat (binary framing), -Dchatroom.direct.heartbeatMillis (0 disables) / heartbeatMaxMissed
+    private static final long HEARTBEAT_INTERVAL_MILLIS = Long.getLong("chatroom.direct.heartbeatMillis", 5_000L);
+    private static final int HEARTBEAT_MAX_MISSED = Integer.getInteger("chatroom.direct.heartbeatMaxMissed", 3);
+    // Reconnect after transient errors, jittered exponential backoff, -Dchatroom.reconnect.maxAttempts
+    private static final long RECONNECT_BASE_DELAY_MILLIS = 500L;
+    private static final long RECONNECT_MAX_DELAY_MILLIS = 30_000L;
+    private static final int RECONNECT_MAX_ATTEMPTS = Integer.getInteger("chatroom.reconnect.maxAttempts", 10);
+    // Last discovery answer kept on disk and shown at launch, -Dchatroom.discovery.cacheFile / cacheTtlSeconds
+    private static final String DISCOVERY_CACHE_FILE = System.getProperty("chatroom.discovery.cacheFile",
+            Path.of(System.getProperty("user.home"), ".chatroom_clientfx", "discovery-cache.json").toString());
+    private static final long DISCOVERY_CACHE_TTL_SECONDS = Long.getLong("chatroom.discovery.cacheTtlSeconds", 300L);
+    // TCP connect probes used to rank direct-capable servers, measurements reused for -Dchatroom.discovery.probeTtlSeconds
+    private static final int PROBE_MAX_CONCURRENT = 8;
+    private static final int PROBE_TIMEOUT_MILLIS = 2000;
+    private static final long PROBE_TTL_SECONDS = Long.getLong("chatroom.discovery.probeTtlSeconds", 120L);
+
+    /**
+     * Receives the engine's events, every method is optional
+     */
+    public interface Listener {
+        /**
+         * Status line changed (event executor)
+         * @param status Human readable status
+         */
+        default void onStatus(String status) {}
+
+        /**
+         * A line arrived from the server (network thread)
+         * @param message The line, already formatted by the server
+         */
+        default void onMessageReceived(String message) {}
+
+        /**
+         * A local [System] / [Error] line for the user (any thread)
+         * @param notice The line
+         */
+        default void onNotice(String notice) {}
+
+        /**
+         * The connection state changed (event executor), intermediate states may be skipped
+         * @param state Current state, see {@link ConnectionState#isConnected()} and {@link ConnectionState#mode()}
+         * @param server Server of the session, null when disconnected
+         */
+        default void onConnectionChanged(ConnectionState state, ServerInfo server) {}
+
+        /**
+         * The server list changed or was re-ranked (event executor)
+         * @param servers Servers, fastest first
+         */
+        default void onServerList(List<ServerInfo> servers) {}
+
+        /**
+         * New latency measurements, reported before the re-ranked list (event executor)
+         * @param latencies Server UUID -> connect RTT ms, -1 unreachable
+         */
+        default void onServerLatency(Map<String, Long> latencies) {}
+
+        /**
+         * Heartbeat round-trip time of the direct session (event executor)
+         * @param rttMillis Latest measurement, -1 once there's no direct session
+         */
+        default void onRoundTrip(long rttMillis) {}
+    }
+
+    private final String discoveryUrl;
+    private final String clientUuid;
+
+    // Network resources, possibly shared with the other rooms of a ChatSessionManager
+    private final ChatTransports transports;
+    private final boolean ownsTransports; // Created for this engine alone, shut down with it
+    private final HttpClient httpClient;
+    private final DiscoveryCache discoveryCache;
+    private final LatencyProber latencyProber;
+    private final ExecutorService networkExecutor; // For background network tasks, see NetworkExecutors
+    private final AsyncRelayClient relayClient; // Non-blocking relay I/O, no thread held per request
+    private final RelayPoller relayPoller; // Shared poll of our inbox, routes by server UUID
+    private volatile RelayPoller.Subscriber relaySubscription; // Ours while subscribed (handshake or session)
+    private final RelaySendQueue relaySendQueue;
+    private volatile CompletableFuture<Boolean> pendingDisconnectNotice; // Awaited briefly on shutdown
+
+    // Reconnect engine, transient transport errors don't drop the session
+    private final ReconnectBackoff reconnectBackoff = new ReconnectBackoff(RECONNECT_BASE_DELAY_MILLIS, RECONNECT_MAX_DELAY_MILLIS, RECONNECT_MAX_ATTEMPTS);
+    private final AtomicBoolean reconnecting = new AtomicBoolean(false);
+    private final Object reconnectSends = new Object(); // Held to queue a send for the reconnect, or to end it with the drain
+    private final AtomicInteger reconnectGeneration = new AtomicInteger(); // Bumped on reset, stale attempts see it and stop
+    // Chat messages stay in the durable outbound queue until the server took them (across outages and restarts)
+    private final OutboundQueue outbound;
+    private final Map<RelayMessageDTO, Long> outboundInFlight = new ConcurrentHashMap<>(); // Handed to the relay send queue, DTO (identity) -> entry id
+    private final Set<Long> directInFlight = ConcurrentHashMap.newKeySet(); // Entry ids a direct session hasn't written yet
+
+    // Event delivery
+    private final Executor events; // Runs state changes and listener calls, one at a time
+    private final ExecutorService ownedEvents; // Our own event thread, null if the caller supplied the executor
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Connection lifecycle, read lock-free on the network threads' fast path, transitions by compare-and-set
+    private final AtomicReference<ConnectionState> state = new AtomicReference<>(ConnectionState.NONE);
+    private ConnectionState publishedState = ConnectionState.NONE; // Last state told to listeners, event executor only
+    private ServerInfo publishedServer; // Event executor only
+
+    // Session state, written on the event executor (server and nickname also by the caller), read anywhere
+    private volatile List<ServerInfo> serverList = List.of();
+    private final Map<String, Long> serverLatency = new ConcurrentHashMap<>(); // Server UUID -> connect RTT ms, -1 unreachable
+    private volatile String connectionStatus = "Disconnected";
+    private volatile String currentNickname = "";
+    private volatile ServerInfo currentServer;
+
+    // Direct Connection Resources, the I/O thread is in ChatTransports
+    private volatile DirectSession directSession;
+    private volatile long roundTripMillis = -1; // Last heartbeat RTT of the direct session
+    // Set while direct chat messages go through the outbound queue (session backlogged or draining), keeps them in order
+    private final AtomicBoolean directBackpressure = new AtomicBoolean(false);
+
+    /**
+     * Engine with its own event thread, for headless use
+     * @param discoveryUrl URL where the discover server is (RaquelAPI)
+     * @param relayUrl URL where the relay server is (RaquelAPI)
+     */
+    public ChatEngine(String discoveryUrl, String relayUrl) {
+        this(discoveryUrl, relayUrl, null, null);
+    }
+
+    /**
+     * The ChatEngine constructor with validations
+     * @param discoveryUrl URL where the discover server is (RaquelAPI)
+     * @param relayUrl URL where the relay server is (RaquelAPI)
+     * @param eventExecutor Runs state changes and listener calls (e.g. Platform::runLater), must run tasks in order.
+     *                      Null for a dedicated daemon thread
+     * @param listener Registered before anything is reported, can be null
+     */
+    public ChatEngine(String discoveryUrl, String relayUrl, Executor eventExecutor, Listener listener) {
+        this(discoveryUrl, new ChatTransports(relayUrl), true, eventExecutor, listener);
+    }
+
+    /**
+     * Engine on transports shared with other engines (one per room), see {@link ChatSessionManager}
+     * @param discoveryUrl URL where the discover server is (RaquelAPI)
+     * @param transports Shared network resources, outlive the engine
+     * @param eventExecutor Runs state changes and listener calls, must run tasks in order. Null for a dedicated daemon thread
+     * @param listener Registered before anything is reported, can be null
+     */
+    public ChatEngine(String discoveryUrl, ChatTransports transports, Executor eventExecutor, Listener listener) {
+        this(discoveryUrl, transports, false, eventExecutor, listener);
+    }
+
+    private ChatEngine(String discoveryUrl, ChatTransports transports, boolean ownsTransports, Executor eventExecutor, Listener listener) {
+        if (eventExecutor == null) {
+            this.ownedEvents = Executors.newSingleThreadExecutor(r -> {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true); // Allow JVM exit
+                t.setName("Chat-Events-Thread");
+                return t;
+            });
+            this.events = ownedEvents;
+        } else {
+            this.ownedEvents = null;
+            this.events = eventExecutor;
+        }
+        if (listener != null) listeners.add(listener);
+        // Ensure URL doesn't end with '/'
+        this.discoveryUrl = discoveryUrl.endsWith("/") ? discoveryUrl.substring(0, discoveryUrl.length() - 1) : discoveryUrl;
+        this.transports = transports;
+        this.ownsTransports = ownsTransports;
+        this.clientUuid = transports.getClientUuid();
+        this.discoveryCache = new DiscoveryCache(Path.of(DISCOVERY_CACHE_FILE), this.discoveryUrl,
+                TimeUnit.SECONDS.toMillis(DISCOVERY_CACHE_TTL_SECONDS));
+        this.networkExecutor = transports.networkExecutor();
+        this.httpClient = transports.httpClient();
+        this.latencyProber = new LatencyProber(networkExecutor, PROBE_MAX_CONCURRENT, PROBE_TIMEOUT_MILLIS,
+                TimeUnit.SECONDS.toMillis(PROBE_TTL_SECONDS));
+        this.relayClient = transports.relayClient();
+        this.relayPoller = transports.relayPoller();
+        this.outbound = transports.outbound();
+        this.relaySendQueue = new RelaySendQueue(transports.relaySendExecutor(), new RelaySendQueue.Transport() {
+            @Override
+            public CompletableFuture<RelaySendQueue.BatchResult> sendBatch(List<RelayMessageDTO> batch) {
+                return sendRelayBatchInternal(batch).thenApply(result -> {
+                    if (result == RelaySendQueue.BatchResult.SENT) outbound.ack(releaseOutbound(batch));
+                    return result;
+                });
+            }
+
+            @Override
+            public CompletableFuture<Boolean> send(RelayMessageDTO message) {
+                return sendRelayMessageInternal(message).thenApply(ok -> {
+                    if (ok) outbound.ack(releaseOutbound(List.of(message)));
+                    return ok;
+                });
+            }
+        }, RELAY_SEND_COALESCE_MILLIS, RELAY_SEND_MAX_BATCH, failed -> {
+            // Error was already logged in internal method, internal method handles triggering reconnect/disconnect too
+            List<Long> ids = releaseOutbound(failed);
+            outbound.markRetry(ids); // Still queued, sent again once we're (re)connected
+            if (reconnecting.get()) return;
+            addChatMessage("[Error] Failed to send message via relay."
+                    + (ids.isEmpty() ? "" : " It stays queued and will be retried when connected."));
+        });
+        updateStatus("Initialized. Client UUID: " + clientUuid);
+    }
+
+    /**
+     * @param listener Receives events from now on
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // --- State Getters, readable from any thread ---
+    public String getClientUuid() { return clientUuid; }
+    public boolean isConnected() { return state.get().isConnected(); }
+    public ConnectionState getConnectionState() { return state.get(); }
+    public String getConnectionStatus() { return connectionStatus; }
+    public ConnectionMode getCurrentMode() { return state.get().mode(); }
+    public ServerInfo getCurrentServer() { return currentServer; }
+    public String getNickname() { return currentNickname; }
+    public List<ServerInfo> getServerList() { return serverList; }
+    public Map<String, Long> getServerLatency() { return Map.copyOf(serverLatency); }
+    public long getRoundTripMillis() { return roundTripMillis; }
+
+    /**
+     * Tell the engine the user is around (window focused, typing...), relay polling goes back to its fast rate
+     */
+    public void notifyUserActivity() {
+        relayPoller.onActivity();
+    }
+
+    // --- Core Actions Initiated by Controller ---
+
+    /**
+     * Set the user's chosen nickname
+     * @param nickname Represents the nickname
+     */
+    public void setNickname(String nickname) {
+        this.currentNickname = nickname.trim();
+    }
+
+    /**
+     * Startup: show the cached server list right away, then revalidate it in the background if it's older than the TTL
+     */
+    public void loadServerList() {
+        networkExecutor.submit(() -> {
+            DiscoveryCache.Entry cached = discoveryCache.load();
+            if (cached == null) {
+                fetchServerList();
+                return;
+            }
+            boolean fresh = discoveryCache.isFresh(cached);
+            post(() -> {
+                showServerList(cached.servers());
+                if (fresh) {
+                    updateStatus(cached.servers().isEmpty() ? "No active servers found." : "Server list loaded. Please select a server.");
+                }
+            });
+            if (!fresh) {
+                fetchServerList();
+            }
+        });
+    }
+
+    /**
+     * Publish a server list (event executor), ranked with the latencies we already know
+     * Then probe it in the background and re-rank when the measurements come in.
+     * Listeners only hear about it if the result differs, so an unchanged refresh keeps the selection
+     *
+     * @param servers Servers in discovery order
+     */
+    private void showServerList(List<ServerInfo> servers) {
+        List<ServerInfo> ranked = rankServers(servers);
+        if (!ranked.equals(serverList)) {
+            publishServerList(ranked);
+        }
+        latencyProber.probe(servers).whenComplete((results, error) -> {
+            if (error != null) {
+                System.err.println("Error probing server latency: " + error.getMessage());
+                return;
+            }
+            post(() -> {
+                boolean changed = false;
+                for (Map.Entry<String, LatencyProber.Measurement> result : results.entrySet()) {
+                    Long rtt = result.getValue().rttMillis();
+                    changed |= !rtt.equals(serverLatency.put(result.getKey(), rtt));
+                }
+                if (changed) {
+                    Map<String, Long> latencies = Map.copyOf(serverLatency);
+                    notifyListeners(listener -> listener.onServerLatency(latencies));
+                }
+                List<ServerInfo> reranked = rankServers(serverList);
+                if (changed || !reranked.equals(serverList)) {
+                    publishServerList(reranked); // Also redraws the latency shown next to each server
+                }
+            });
+        });
+    }
+
+    private void publishServerList(List<ServerInfo> servers) {
+        List<ServerInfo> list = List.copyOf(servers);
+        serverList = list;
+        notifyListeners(listener -> listener.onServerList(list));
+    }
+
+    /**
+     * Fastest reachable servers first, then the ones without a measurement (relay-only / not probed yet),
+     * unreachable ones last. Stable, servers keep the discovery order within a group
+     */
+    private List<ServerInfo> rankServers(List<ServerInfo> servers) {
+        List<ServerInfo> ranked = new ArrayList<>(servers);
+        ranked.sort(Comparator.comparingInt((ServerInfo server) -> {
+            Long rtt = serverLatency.get(server.uuid());
+            return rtt == null ? 1 : (rtt >= 0 ? 0 : 2);
+        }).thenComparingLong(server -> Math.max(0L, serverLatency.getOrDefault(server.uuid(), 0L))));
+        return ranked;
+    }
+
+    /**
+     * Here we get the JSON data (available servers) from the discovery service
+     * The answer is cached on disk
+     */
+    public void fetchServerList() {
+        networkExecutor.submit(() -> {
+            updateStatus("Fetching server list...");
+            DiscoveryCache.Entry cached = discoveryCache.load();
+            HttpRequest.Builder builder = HttpRequest.newBuilder()
+                    .uri(URI.create(discoveryUrl + "/get_servers.php"))
+                    .GET()
+                    .timeout(Duration.ofSeconds(10));
+            if (cached != null) {
+                // Conditional GET, an unchanged list comes back as an empty 304
+                if (cached.etag() != null) builder.header("If-None-Match", cached.etag());
+                if (cached.lastModified() != null) builder.header("If-Modified-Since", cached.lastModified());
+            }
+            HttpRequest request = builder.build();
+            try {
+                HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 304 && cached != null) {
+                    discoveryCache.markValidated();
+                    List<ServerInfo> servers = cached.servers();
+                    post(() -> {
+                        showServerList(servers);
+                        updateStatus(servers.isEmpty() ? "No active servers found." : "Server list is up to date. Please select a server.");
+                    });
+                } else if (response.statusCode() == 200) {
+                    List<ServerInfo> servers = ServerInfo.parseServerList(response.body());
+                    discoveryCache.save(response.body(), response.headers().firstValue("ETag").orElse(null),
+                            response.headers().firstValue("Last-Modified").orElse(null));
+                    post(() -> {
+                        showServerList(servers);
+                        if (servers.isEmpty()) {
+                            updateStatus("No active servers found.");
+                        } else {
+                            updateStatus("Server list updated. Please select a server.");
+                        }
+                    });
+                } else {
+                    handleNetworkError("Error fetching server list", "Status: " + response.statusCode(), null);
+                }
+            } catch (IOException | InterruptedException e) {
+                handleNetworkError("Error connecting to discovery service", e.getMessage(), e);
+            } catch (Exception e) { // Catch JSON parsing errors etc.
+                handleNetworkError("Error processing server list", e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Server connection logic
+     * @param server represents the ServerInfo object (the Record)
+     * @param nickname User's nickname
+     */
+    public void connectToServer(ServerInfo server, String nickname) {
+        if (state.get() != ConnectionState.NONE) {
+            addChatMessage("[System] Already connected. Disconnect first.");
+            return;
+        }
+        if (server == null) {
+            addChatMessage("[Error] No server selected.");
+            updateStatus("Connection failed: No server selected.");
+            return;
+        }
+        if (nickname == null || nickname.trim().isEmpty()) {
+            addChatMessage("[Error] Nickname cannot be empty.");
+            updateStatus("Connection failed: Nickname required.");
+            return;
+        }
+
+        if (!state.compareAndSet(ConnectionState.NONE, ConnectionState.CONNECTING)) {
+            addChatMessage("[System] Already connected. Disconnect first."); // Lost against a concurrent connect
+            return;
+        }
+        if (!transports.claimServer(server.uuid())) {
+            state.set(ConnectionState.NONE);
+            addChatMessage("[System] Already connected to '" + server.name() + "' in another room.");
+            return;
+        }
+        int generation = reconnectGeneration.get(); // Bumped by a disconnect meanwhile, the attempt is then stale
+        setNickname(nickname);
+        currentServer = server;
+        post(this::publishState);
+        updateStatus("Connecting to " + server.name() + " as " + nickname + "...");
+        addChatMessage("[System] Attempting connection to: " + server.name());
+
+        // Race both transports, direct gets a head start, composed futures so no thread waits on the network
+        AtomicReference<DirectSession> directAttemptSession = new AtomicReference<>();
+        AtomicBoolean directAbandoned = new AtomicBoolean(false);
+        ConnectionRacer.Attempt direct = !server.supportsDirect() ? null : new ConnectionRacer.Attempt() {
+            @Override
+            public CompletableFuture<Boolean> start() {
+                updateStatus("Trying DIRECT connection to " + server.host() + ":" + server.port() + "...");
+                return attemptDirectConnection(server, nickname, directAttemptSession, directAbandoned);
+            }
+
+            @Override
+            public void abandon() {
+                directAbandoned.set(true);
+                DirectSession session = directAttemptSession.get();
+                if (session != null) {
+                    if (directSession == session) directSession = null; // Won't be reported as a lost connection
+                    session.close();
+                }
+            }
+        };
+
+        AtomicBoolean relayHandshakeSent = new AtomicBoolean(false);
+        AtomicBoolean relayAbandoned = new AtomicBoolean(false);
+        AtomicReference<RelayPoller.Subscriber> relayHandshake = new AtomicReference<>();
+        ConnectionRacer.Attempt relay = !server.supportsRelay() ? null : new ConnectionRacer.Attempt() {
+            @Override
+            public CompletableFuture<Boolean> start() {
+                updateStatus("Trying RELAY connection via " + transports.getRelayUrl() + "...");
+                return attemptRelayHandshake(server, nickname, relayHandshakeSent, relayHandshake, relayAbandoned);
+            }
+
+            @Override
+            public void abandon() {
+                relayAbandoned.set(true);
+                // Only our own handshake subscription, a newer session may have subscribed meanwhile
+                RelayPoller.Subscriber handshake = relayHandshake.get();
+                if (handshake != null) {
+                    if (relaySubscription == handshake) relaySubscription = null;
+                    relayPoller.unsubscribe(handshake);
+                }
+                if (relayHandshakeSent.get()) {
+                    sendClientDisconnect(server); // The server may already count us as a relay client, tell it we're gone
+                }
+            }
+        };
+
+        ConnectionRacer.race(direct, relay, CONNECT_RELAY_HEAD_START_MILLIS, networkExecutor).whenComplete((winner, error) -> {
+            if (error != null) {
+                System.err.println("Unexpected error while connecting: " + error.getMessage());
+            }
+            if (winner == ConnectionRacer.Winner.PRIMARY) {
+                if (!enterConnectedState(ConnectionState.DIRECT, generation)) {
+                    direct.abandon(); // Disconnected while connecting
+                    return;
+                }
+                post(() -> {
+                    updateStatus("Connected (DIRECT) to " + server.name());
+                    DirectSession session = directSession;
+                    addChatMessage("[System] Direct connection established!"
+                            + (session != null && session.isBinaryFraming() ? " (binary framing)" : ""));
+                    drainOutbound(ConnectionMode.DIRECT, server); // Left over from an earlier session
+                });
+            } else if (winner == ConnectionRacer.Winner.SECONDARY) {
+                if (!enterConnectedState(ConnectionState.RELAY, generation)) {
+                    relay.abandon(); // Disconnected while connecting
+                    return;
+                }
+                post(() -> {
+                    updateStatus("Connected (RELAY) to " + server.name());
+                    addChatMessage("[System] Relay connection established!");
+                    startRelayPolling(server);
+                    drainOutbound(ConnectionMode.RELAY, server); // Left over from an earlier session
+                });
+            } else if (generation == reconnectGeneration.get()) {
+                // Handle Failure
+                post(() -> {
+                    updateStatus("Connection failed to " + server.name());
+                    addChatMessage("[Error] Failed to connect to server '" + server.name() + "'.");
+                    resetConnectionStateInternal(false); // Reset without explicit disconnect message
+                });
+            }
+        });
+    }
+
+    /**
+     * Send message to server - logic
+     * @param message Represents the message sent by user
+     */
+    public void sendMessage(String message) {
+        ConnectionState current = state.get();
+        if (!current.isConnected() || message == null || message.trim().isEmpty()) {
+            // Maybe show a subtle error, or just ignore empty sends
+            if (!current.isConnected()) addChatMessage("[Error] Not connected.");
+            return;
+        }
+
+        String formattedMessage = "[" + currentNickname + "] " + message; // Format for display locally immediately? Or let server do it? Let's let server do it for consistency.
+
+        synchronized (reconnectSends) { // Not past finishReconnect's drain, the message would miss it
+            if (reconnecting.get()) {
+                queueForReconnect(message);
+                return;
+            }
+        }
+
+        switch (current) {
+            case DIRECT:
+                sendDirectMessage(message); // Server adds nickname
+                // Optionally add to local view immediately: addChatMessage(formattedMessage);
+                break;
+            case RELAY:
+                ServerInfo server = currentServer;
+                if (server == null) return; // Disconnected meanwhile
+                sendRelayMessage(server.uuid(), message, "chat");
+                notifyUserActivity(); // Replies usually follow, poll fast
+                // Optionally add to local view immediately: addChatMessage(formattedMessage);
+                break;
+            default:
+                addChatMessage("[Error] Cannot send message: No active connection.");
+                break;
+        }
+    }
+
+    /**
+     * Server disconnection logic
+     * While sending a control message to the server to handle disconnection
+     * Also cancels a connection attempt still in progress
+     */
+    public void disconnect() {
+        ConnectionState previous;
+        do {
+            previous = state.get();
+            if (previous == ConnectionState.NONE || previous == ConnectionState.DISCONNECTING) return; // Nothing to do, or already on it
+        } while (!state.compareAndSet(previous, ConnectionState.DISCONNECTING));
+        post(this::publishState);
+
+        addChatMessage("[System] Disconnecting...");
+        updateStatus("Disconnecting...");
+
+        // Send disconnect notification if possible (best effort)
+        ServerInfo server = currentServer;
+        if(previous == ConnectionState.RELAY && server != null) {
+            // Send a 'disconnect' control message (server needs to handle this)
+            // Best-effort and asynchronous, shutdown gives it a moment to go out
+            pendingDisconnectNotice = sendClientDisconnect(server);
+        }
+        // No standard TCP disconnect message defined, just close
+
+        resetConnectionStateInternal(true); // Full reset with disconnect message
+    }
+
+    /**
+     * Controlled shutdown of program, avoid leaving orphaned processes
+     */
+    public void shutdown() {
+        updateStatus("Shutting down...");
+        disconnect(); // Ensure clean disconnect if connected
+        CompletableFuture<Boolean> notice = pendingDisconnectNotice;
+        if (notice != null) {
+            try {
+                notice.get(2, TimeUnit.SECONDS); // Let the CLIENT_DISCONNECT reach the relay
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                System.err.println("Disconnect notice not confirmed: " + e.getMessage());
+            }
+        }
+        stopRelayPolling(); // Ensure we're unsubscribed
+        releaseOutbound(relaySendQueue.clear()); // Still in the outbound queue for next time
+        closeDirectConnectionResources(); // Final check
+        if (ownsTransports) transports.shutdown(); // Shared ones are shut down by their owner
+        if (ownedEvents != null) ownedEvents.shutdown(); // Already queued events still run
+        System.out.println("ChatEngine shutdown complete.");
+    }
+
+
+    // --- Internal Helper Methods ---
+
+    /**
+     * Run a state change on the event executor, dropped once the engine is shut down
+     * @param task The change
+     */
+    private void post(Runnable task) {
+        try {
+            events.execute(task);
+        } catch (RejectedExecutionException e) {
+            System.err.println("Engine shut down, event dropped.");
+        }
+    }
+
+    /**
+     * Call every listener, a failing listener doesn't stop the others (or the network thread calling)
+     * @param event The call
+     */
+    private void notifyListeners(Consumer<Listener> event) {
+        for (Listener listener : listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                System.err.println("Chat listener failed: " + e);
+            }
+        }
+    }
+
+    /**
+     * CONNECTING -> DIRECT / RELAY, unless the attempt was cancelled meanwhile
+     * @param connectedState DIRECT or RELAY
+     * @param generation Reconnect generation when the attempt started
+     * @return False if the attempt is stale, the caller tears its transport down
+     */
+    private boolean enterConnectedState(ConnectionState connectedState, int generation) {
+        if (generation != reconnectGeneration.get() || !state.compareAndSet(ConnectionState.CONNECTING, connectedState)) {
+            return false;
+        }
+        post(this::publishState);
+        return true;
+    }
+
+    /**
+     * Tell listeners the current state (event executor)
+     * Reads the state when it runs, so listeners always end on the latest one even if transitions raced
+     */
+    private void publishState() {
+        ConnectionState current = state.get();
+        ServerInfo server = current == ConnectionState.NONE ? null : currentServer;
+        if (current == publishedState && server == publishedServer) return;
+        publishedState = current;
+        publishedServer = server;
+        notifyListeners(listener -> listener.onConnectionChanged(current, server));
+    }
+
+    /**
+     * @param rttMillis Heartbeat round-trip time, -1 for none
+     */
+    private void publishRoundTrip(long rttMillis) {
+        roundTripMillis = rttMillis;
+        post(() -> notifyListeners(listener -> listener.onRoundTrip(rttMillis)));
+    }
+
+    /**
+     * A line from the server
+     * @param message The message line
+     */
+    private void addReceivedMessage(String message) {
+        notifyListeners(listener -> listener.onMessageReceived(message));
+    }
+
+    private void updateStatus(String status) {
+        post(() -> {
+            connectionStatus = status;
+            notifyListeners(listener -> listener.onStatus(status));
+        });
+    }
+
+    private void addChatMessage(String message) {
+        notifyListeners(listener -> listener.onNotice(message));
+    }
+
+    /**
+     * Helper method, handling network error
+     * Notify user
+     *
+     * @param context The error
+     * @param details Explanation
+     * @param t Represents the exception to be throwable by JVM
+     */
+    private void handleNetworkError(String context, String details, Throwable t) {
+        String errorMsg = "[Error] " + context + ": " + details;
+        System.err.println(errorMsg);
+        if (t != null) {
+            t.printStackTrace(); // Log stack trace for debugging
+        }
+        // Update status and notify in order with the other events
+        post(() -> {
+            updateStatus("Error: " + context);
+            addChatMessage(errorMsg);
+        });
+    }
+
+    /**
+     * Handle the Connection Reset events
+     * Needs refactoring
+     *
+     * @param showDisconnectMessage The message to be notified to user
+     */
+    private void resetConnectionStateInternal(boolean showDisconnectMessage) {
+        ConnectionState previous = state.getAndSet(ConnectionState.NONE);
+        boolean wasConnected = previous.isConnected() || previous == ConnectionState.DISCONNECTING;
+        ServerInfo server = currentServer;
+        currentServer = null;
+        if (server != null) transports.releaseServer(server.uuid()); // Free for another room
+        // Notify on the event executor, ordered with the other state changes
+        post(() -> {
+            publishState();
+            // Don't clear nickname
+            if(wasConnected && showDisconnectMessage) {
+                addChatMessage("[System] Disconnected.");
+                updateStatus("Disconnected.");
+            } else if (!wasConnected && !showDisconnectMessage) {
+                // This happens after a connection attempt fails, status already updated
+            }
+            else {
+                updateStatus("Disconnected."); // Generic fallback
+            }
+
+        });
+        // Stop background activities
+        stopReconnecting();
+        // Whatever wasn't acked is still in the outbound queue. Sends already on the wire keep their entry
+        // until they complete, so a late success is still acked instead of sent again next session
+        releaseOutbound(relaySendQueue.clear());
+        directBackpressure.set(false);
+        stopRelayPolling();
+        if (server != null) relayPoller.forget(server.uuid()); // Not shown in a later session
+        closeDirectConnectionResources(); // Close socket etc.
+    }
+
+
+    // --- Reconnect Logic ---
+
+    /**
+     * A transport failed but the error looks transient: keep the session (connected, mode, server) and reconnect
+     * in the background with jittered exponential backoff. Chat messages typed meanwhile wait in the outbound queue.
+     * Only one reconnect runs at a time, further errors while it runs are ignored.
+     *
+     * @param mode Transport that failed
+     * @param reason Shown to the user
+     */
+    private void beginReconnect(ConnectionMode mode, String reason) {
+        ServerInfo server = currentServer;
+        if (server == null || !reconnecting.compareAndSet(false, true)) return;
+        int generation = reconnectGeneration.get();
+        System.err.println("Connection interrupted (" + mode + "): " + reason + ". Reconnecting.");
+
+        // Drop the broken transport, the session itself stays
+        if (mode == ConnectionMode.RELAY) {
+            stopRelayPolling();
+        } else {
+            closeDirectConnectionResources();
+        }
+        addChatMessage("[System] Connection interrupted, reconnecting...");
+        scheduleReconnectAttempt(mode, server, generation);
+    }
+
+    private void scheduleReconnectAttempt(ConnectionMode mode, ServerInfo server, int generation) {
+        if (generation != reconnectGeneration.get()) return; // Disconnected meanwhile
+        long delay = reconnectBackoff.nextDelayMillis();
+        if (delay < 0) {
+            post(() -> {
+                if (generation != reconnectGeneration.get()) return;
+                int queued = outbound.pendingFor(server.uuid()).size();
+                addChatMessage("[Error] Could not reconnect after " + reconnectBackoff.maxAttempts() + " attempts."
+                        + (queued > 0 ? " " + queued + " queued messages will be sent when you connect again." : ""));
+                resetConnectionStateInternal(true);
+            });
+            return;
+        }
+        updateStatus("Reconnecting to " + server.name() + " (attempt " + reconnectBackoff.attempts() + "/"
+                + reconnectBackoff.maxAttempts() + ")...");
+
+        AtomicReference<DirectSession> opened = new AtomicReference<>();
+        Executor delayed = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, networkExecutor);
+        CompletableFuture.runAsync(() -> { }, delayed)
+                .thenCompose(ignored -> generation != reconnectGeneration.get()
+                        ? CompletableFuture.completedFuture((ConnectionMode) null)
+                        : resumeTransport(mode, server, opened))
+                .whenComplete((resumed, error) -> {
+                    boolean ok = error == null && resumed != null;
+                    if (generation != reconnectGeneration.get()) {
+                        DirectSession stale = opened.get();
+                        if (stale != null) stale.close(); // User disconnected while we were reconnecting
+                        return;
+                    }
+                    if (!ok) {
+                        System.err.println("Reconnect attempt failed: "
+                                + (error != null ? AsyncRelayClient.unwrap(error).getMessage() : "not reachable"));
+                        scheduleReconnectAttempt(mode, server, generation);
+                        return;
+                    }
+                    if (resumed == ConnectionMode.DIRECT) {
+                        directSession = opened.get();
+                    }
+                    post(() -> finishReconnect(resumed, server, generation));
+                });
+    }
+
+    /**
+     * Bring the transport back without a new handshake where possible
+     * Relay: the inbox belongs to our UUID and the poll cursor knows what we have, one successful poll resumes it
+     * (we're subscribed meanwhile so whatever it brings for our server isn't dropped).
+     * Direct: a new socket is needed, we identify with the same UUID so the server picks the session up again.
+     * If that fails and the server is reachable over the relay, fail over to it (handshake) instead of waiting
+     * for the direct path to come back.
+     *
+     * @return Completes with the transport now in use, null if neither came back
+     */
+    private CompletableFuture<ConnectionMode> resumeTransport(ConnectionMode mode, ServerInfo server, AtomicReference<DirectSession> opened) {
+        if (mode == ConnectionMode.RELAY) {
+            subscribeRelay(server, relaySubscriber);
+            return relayPoller.pollNow().thenApply(ignored -> ConnectionMode.RELAY);
+        }
+        String nickname = currentNickname;
+        return openDirectSession(server, nickname, opened, new AtomicBoolean(false))
+                .handle((session, error) -> error == null && session.isOpen())
+                .thenCompose(directOk -> {
+                    if (directOk) return CompletableFuture.completedFuture(ConnectionMode.DIRECT);
+                    if (!server.supportsRelay()) return CompletableFuture.completedFuture(null);
+                    return attemptRelayHandshake(server, nickname, new AtomicBoolean(false), new AtomicReference<>(),
+                            new AtomicBoolean(false))
+                            .thenApply(relayOk -> relayOk ? ConnectionMode.RELAY : null);
+                });
+    }
+
+    /**
+     * Transport is back (event executor): restart polling, then send what was typed during the outage, in order
+     * Sends keep queueing until the drain handed everything over, so nothing typed now overtakes the backlog.
+     *
+     * @param mode Transport now in use, RELAY if a direct session failed over
+     */
+    private void finishReconnect(ConnectionMode mode, ServerInfo server, int generation) {
+        if (generation != reconnectGeneration.get()) return;
+        if (mode == ConnectionMode.RELAY && state.compareAndSet(ConnectionState.DIRECT, ConnectionState.RELAY)) {
+            publishState();
+            addChatMessage("[System] Direct connection lost, switched to relay.");
+        }
+        reconnectBackoff.reset();
+        if (mode == ConnectionMode.RELAY) {
+            startRelayPolling(server);
+        }
+        updateStatus("Connected (" + mode + ") to " + server.name());
+        addChatMessage("[System] Reconnected.");
+        synchronized (reconnectSends) {
+            drainOutbound(mode, server); // Only hands the messages over, never blocks
+            reconnecting.set(false);
+        }
+    }
+
+    /**
+     * Send the queued messages for this server, oldest first (event executor)
+     * Relay: through the send queue, so a backlog goes out in batched POSTs and is acked when the relay accepts it.
+     * Direct: handed to the session, acked once it was written to the socket (the text protocol has no acknowledgement)
+     *
+     * @param mode Transport now in use
+     * @param server The connected server
+     */
+    private void drainOutbound(ConnectionMode mode, ServerInfo server) {
+        List<OutboundQueue.Entry> pending = unsentFor(server);
+        if (pending.isEmpty()) return;
+        addChatMessage("[System] Sending " + pending.size() + " queued messages.");
+        if (mode == ConnectionMode.DIRECT) {
+            directBackpressure.set(true); // New messages queue up behind these
+            resumeDirectSends(server);
+            return;
+        }
+        for (OutboundQueue.Entry entry : pending) {
+            submitOutbound(entry);
+        }
+    }
+
+    /**
+     * Write the queued direct messages, oldest first, until the session is backlogged again (event executor)
+     * Once everything went out new messages are written to the session directly again
+     *
+     * @param server The connected server
+     */
+    private void resumeDirectSends(ServerInfo server) {
+        DirectSession session = directSession;
+        if (session == null) return;
+        while (writeDirect(session, unsentFor(server))) {
+            directBackpressure.set(false);
+            if (unsentFor(server).isEmpty()) return; // Nothing slipped in before the flag cleared
+            directBackpressure.set(true);
+        }
+    }
+
+    /**
+     * @param server A server
+     * @return Its queued messages no transport has taken yet, oldest first
+     */
+    private List<OutboundQueue.Entry> unsentFor(ServerInfo server) {
+        List<OutboundQueue.Entry> pending = outbound.pendingFor(server.uuid());
+        pending.removeIf(entry -> directInFlight.contains(entry.id()) || outboundInFlight.containsValue(entry.id()));
+        return pending;
+    }
+
+    /**
+     * Hand queued messages to the session, each is acked once the I/O loop wrote it. If the session closes first
+     * it stays queued and goes out again after the reconnect
+     *
+     * @return True if every entry was handed to the session, false if it's backlogged (onWritable resumes)
+     *         or closed (the reconnect keeps the rest)
+     */
+    private boolean writeDirect(DirectSession session, List<OutboundQueue.Entry> entries) {
+        for (OutboundQueue.Entry entry : entries) {
+            if (session.isBacklogged()) return false;
+            long id = entry.id();
+            directInFlight.add(id);
+            boolean queued = session.send(entry.text(), written -> {
+                directInFlight.remove(id);
+                if (written) outbound.ack(List.of(id));
+            });
+            if (!queued) {
+                directInFlight.remove(id);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hand a queued chat message to the relay send queue, acked or marked for retry when the send completes
+     * @param entry The queued message
+     */
+    private void submitOutbound(OutboundQueue.Entry entry) {
+        RelayMessageDTO dto = new RelayMessageDTO(clientUuid, entry.recipient(), entry.text(), "chat");
+        outboundInFlight.put(dto, entry.id());
+        relaySendQueue.submit(dto);
+    }
+
+    /**
+     * @param messages Messages the send queue is done with
+     * @return Outbound entry ids of those that came from the outbound queue (control messages don't)
+     */
+    private List<Long> releaseOutbound(List<RelayMessageDTO> messages) {
+        List<Long> ids = new ArrayList<>();
+        for (RelayMessageDTO message : messages) {
+            Long id = outboundInFlight.remove(message);
+            if (id != null) ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * Keep a chat message until the connection is back
+     * @param message The message text
+     */
+    private void queueForReconnect(String message) {
+        ServerInfo server = currentServer;
+        if (server == null) return;
+        if (outbound.pendingFor(server.uuid()).isEmpty()) {
+            addChatMessage("[System] Reconnecting, messages will be sent once the connection is back.");
+        }
+        outbound.enqueue(server.uuid(), message);
+    }
+
+    /**
+     * Cancel a running reconnect (disconnect/reset), queued messages stay in the outbound queue
+     */
+    private void stopReconnecting() {
+        reconnectGeneration.incrementAndGet();
+        reconnecting.set(false);
+        reconnectBackoff.reset();
+    }
+
+    /**
+     * @return False for HTTP errors a retry won't fix (4xx except 408/429)
+     */
+    private static boolean isTransientRelayError(Throwable cause) {
+        if (cause instanceof AsyncRelayClient.RelayStatusException statusError) {
+            int status = statusError.getStatusCode();
+            return status < 400 || status >= 500 || status == 408 || status == 429;
+        }
+        return true; // I/O errors, timeouts
+    }
+
+
+    // --- Direct Connection Logic ---
+
+    /**
+     * Tries the best connection type, direct connection
+     * Runs in a race with the relay handshake, once abandoned it fails quietly
+     *
+     * @param server Represents the ServerInfo to be connected
+     * @param nickname Represents user's nickname
+     * @param opened Receives the session as soon as it's opened, so a losing attempt can be closed
+     * @param abandoned Set when the relay won the race
+     * @return Completes with True if it's possible, False it isn't possible
+     */
+    private CompletableFuture<Boolean> attemptDirectConnection(ServerInfo server, String nickname,
+                                                               AtomicReference<DirectSession> opened, AtomicBoolean abandoned) {
+        return openDirectSession(server, nickname, opened, abandoned)
+                .handle((session, error) -> {
+                    if (abandoned.get()) {
+                        if (session != null) session.close(); // Relay won meanwhile
+                        return false;
+                    }
+                    if (error == null) {
+                        directSession = session;
+                        if (!session.isOpen()) { // Closed between the "OK" and now
+                            directSession = null;
+                            addChatMessage("[Error] Direct connection closed during handshake.");
+                            return false;
+                        }
+                        return true; // Success
+                    }
+                    addChatMessage("[System] Direct connection failed.");
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    if (cause instanceof SocketTimeoutException) {
+                        addChatMessage("[Error] Direct connection timed out.");
+                        System.err.println("Direct connection attempt timed out: " + cause.getMessage());
+                    } else if (cause instanceof ConnectException) {
+                        addChatMessage("[Error] Direct connection refused by server.");
+                        System.err.println("Direct connection refused: " + cause.getMessage());
+                    } else if (cause instanceof ProtocolException) {
+                        addChatMessage("[Error] Server rejected direct connection: " + cause.getMessage());
+                    } else if (cause instanceof IOException) {
+                        addChatMessage("[Error] IO error during direct connection.");
+                        System.err.println("IO Error during direct connection attempt: " + cause.getMessage());
+                    } else { // Catch unexpected errors
+                        addChatMessage("[Error] Unexpected error during direct connection.");
+                        System.err.println("Unexpected error during direct connection: " + cause.getMessage());
+                        cause.printStackTrace();
+                    }
+                    return false;
+                });
+    }
+
+    /**
+     * Resolve, connect and wait for the server's "OK"
+     *
+     * @param server The server
+     * @param nickname Represents user's nickname
+     * @param opened Receives the session as soon as it's opened
+     * @param abandoned If set once the session is opened, it's closed right away
+     * @return Completes with the open session, exceptionally if it failed
+     */
+    private CompletableFuture<DirectSession> openDirectSession(ServerInfo server, String nickname,
+                                                               AtomicReference<DirectSession> opened, AtomicBoolean abandoned) {
+        // Name resolution blocks, keep it off the caller's (possibly FX) thread
+        return CompletableFuture.supplyAsync(() -> new InetSocketAddress(server.host(), server.port()), networkExecutor)
+                .thenCompose(address -> {
+                    try {
+                        // 5 sec timeout for connect and again for the "OK", enforced by the I/O loop
+                        DirectSession session = DirectSession.open(transports.directIoLoop(), address, clientUuid, nickname, 5000,
+                                DIRECT_BINARY_FRAMING, directListener);
+                        opened.set(session);
+                        if (abandoned.get()) session.close(); // Lost while resolving
+                        return session.handshakeFuture().thenApply(ignored -> {
+                            // Pings over the loop's timers, a half-open connection closes the session and reconnects
+                            if (!session.startHeartbeat(HEARTBEAT_INTERVAL_MILLIS, HEARTBEAT_MAX_MISSED)) {
+                                // Text server, no pings: let TCP keep-alive notice it in about the same time
+                                session.tuneKeepAlive(HEARTBEAT_INTERVAL_MILLIS, HEARTBEAT_MAX_MISSED);
+                            }
+                            return session;
+                        });
+                    } catch (IOException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                });
+    }
+
+    /**
+     * Receives server lines and close events from the direct I/O loop
+     * Replaces the old dedicated receiver thread, nothing here blocks
+     */
+    private final DirectSession.Listener directListener = new DirectSession.Listener() {
+        @Override
+        public void onLine(DirectSession session, String line) {
+            addReceivedMessage(line); // Straight to the listeners, from the I/O thread
+        }
+
+        @Override
+        public void onClosed(DirectSession session, IOException cause) {
+            // Ignore sessions we already dropped (intentional disconnect)
+            if (session != directSession) return;
+            System.out.println("Direct session closed" + (cause != null ? ": " + cause.getMessage() : "."));
+            if (cause != null && state.get() == ConnectionState.DIRECT) {
+                beginReconnect(ConnectionMode.DIRECT, cause.getMessage()); // Transient until the backoff runs out
+            }
+        }
+
+        @Override
+        public void onHeartbeat(DirectSession session, long rttMillis) {
+            if (session != directSession) return;
+            publishRoundTrip(rttMillis);
+        }
+
+        @Override
+        public void onWritable(DirectSession session) {
+            ServerInfo server = currentServer;
+            if (session != directSession || server == null) return;
+            post(() -> resumeDirectSends(server)); // Send what queued up while it was backlogged
+        }
+
+        @Override
+        public void onControl(DirectSession session, String payload) {
+            if (session != directSession) return;
+            addChatMessage("[Control from Server]: " + payload); // Same as relay control messages
+        }
+    };
+
+    /**
+     * Logic to send a message by direct method
+     * Only queues the line, the I/O loop writes it without blocking the caller
+     * @param message Represents the message data
+     */
+    private void sendDirectMessage(String message) {
+        DirectSession session = directSession;
+        if (session == null) {
+            if (state.get().isConnected()) addChatMessage("[Error] Cannot send direct message: Writer not available.");
+            return;
+        }
+        ServerInfo server = currentServer;
+        if (server == null) return; // Disconnected meanwhile
+        // Durable first like relay messages, acked once the I/O loop wrote it
+        OutboundQueue.Entry entry = outbound.enqueue(server.uuid(), message);
+        if (directBackpressure.get() || session.isBacklogged()) {
+            // Back-pressure: the session has enough to write, the message waits behind the others in the outbound queue
+            boolean first = directBackpressure.compareAndSet(false, true);
+            if (first) addChatMessage("[System] Connection is busy, messages are queued and sent in order.");
+            if (!session.isBacklogged()) post(() -> resumeDirectSends(server)); // Caught up meanwhile
+            return;
+        }
+        // The message from the UI doesn't need the nickname prepended here,
+        // the server should handle adding the sender info.
+        if (!writeDirect(session, List.of(entry))) {
+            if (session.isOpen()) { // Queue full, the message waits in the outbound queue until onWritable
+                directBackpressure.set(true);
+                if (!session.isBacklogged()) post(() -> resumeDirectSends(server)); // Caught up meanwhile
+                return;
+            }
+            // Session closed under us, likely connection lost: the message stays queued, reconnect
+            System.err.println("Error sending direct message. Connection may be lost.");
+            beginReconnect(ConnectionMode.DIRECT, "send failed");
+            addChatMessage("[System] Reconnecting, messages will be sent once the connection is back.");
+        }
+        // Optionally add the sent message locally IF the server doesn't echo it back
+        // addChatMessage("[" + currentNickname + "] " + message);
+    }
+
+    /**
+     * When direct connection ends, free resources, polite to JVM
+     * The shared I/O loop stays up for the next session
+     */
+    private void closeDirectConnectionResources() {
+        DirectSession session = directSession;
+        directSession = null; // Drop it first so the close isn't reported as an error
+        if (roundTripMillis >= 0) publishRoundTrip(-1);
+        if (session != null) {
+            session.close();
+            System.out.println("Direct connection resources closed.");
+        }
+    }
+
+
+    // --- Relay Connection Logic ---
+
+    /**
+     * If relay method, send a Handshake to notify the server to start a connection using relay
+     *
+     * Runs in a race with the direct connection, once abandoned it stops polling and fails quietly
+     *
+     * @param server Represents the endpoint, in this case the server
+     * @param nickname Represents user's nickname
+     * @param requestSent Set once the HANDSHAKE_REQUEST went out, the loser then owes the server a CLIENT_DISCONNECT
+     * @param subscribed Set to the handshake's relay subscription once it exists
+     * @param abandoned Set when the direct connection won the race
+     * @return Completes with True if servers answers, False if timeout
+     */
+    private CompletableFuture<Boolean> attemptRelayHandshake(ServerInfo server, String nickname, AtomicBoolean requestSent,
+                                                             AtomicReference<RelayPoller.Subscriber> subscribed,
+                                                             AtomicBoolean abandoned) {
+        // 1. Send HANDSHAKE_REQUEST
+        JSONObject handshakePayload = new JSONObject();
+        handshakePayload.put("action", "HANDSHAKE_REQUEST");
+        handshakePayload.put("nickname", nickname); // Send nickname
+
+        return sendRelayMessageInternal(server.uuid(), handshakePayload.toString(), "control").thenCompose(sent -> {
+            if (!sent) {
+                if (!abandoned.get()) addChatMessage("[Error] Failed to send relay handshake request.");
+                return CompletableFuture.completedFuture(false);
+            }
+            requestSent.set(true);
+            if (abandoned.get()) return CompletableFuture.completedFuture(false); // Direct won meanwhile
+            addChatMessage("[System] Relay handshake request sent. Waiting for response...");
+            // 2. Poll for HANDSHAKE_OK, 10 seconds
+            return awaitRelayHandshakeReply(server, System.currentTimeMillis() + 10000, subscribed, abandoned);
+        });
+    }
+
+    /**
+     * Wait until the server answers the handshake or the deadline passes
+     * The answer comes through the shared relay poll, we're subscribed to the server meanwhile.
+     * On success whatever follows the HANDSHAKE_OK is held by the poller, {@link #startRelayPolling(ServerInfo)} gets it.
+     *
+     * @param server The server we're shaking hands with
+     * @param deadlineMillis When to give up
+     * @param subscribed Set to our subscription before it's subscribed
+     * @param abandoned Stop waiting when set (lost the race)
+     * @return Completes with True on HANDSHAKE_OK, False on error/rejection/timeout/abandon
+     */
+    private CompletableFuture<Boolean> awaitRelayHandshakeReply(ServerInfo server, long deadlineMillis,
+                                                                AtomicReference<RelayPoller.Subscriber> subscribed,
+                                                                AtomicBoolean abandoned) {
+        CompletableFuture<Boolean> answer = new CompletableFuture<>();
+        RelayPoller.Subscriber handshake = new RelayPoller.Subscriber() {
+            @Override
+            public void onMessages(List<RelayMessageDTO> messages) {
+                for (int i = 0; i < messages.size(); i++) {
+                    RelayMessageDTO dto = messages.get(i);
+                    if (!"control".equalsIgnoreCase(dto.getType())) continue; // Ignore other messages during handshake
+                    try {
+                        JSONObject controlMsg = new JSONObject(dto.getMessage());
+                        String action = controlMsg.optString("action");
+
+                        if ("HANDSHAKE_OK".equalsIgnoreCase(action)) {
+                            addChatMessage("[System] Received HANDSHAKE_OK from server.");
+                            // Anything after it is the session's, kept until startRelayPolling subscribes
+                            relayPoller.hold(server.uuid(), this, messages.subList(i + 1, messages.size()));
+                            if (relaySubscription == this) relaySubscription = null;
+                            answer.complete(true); // Success!
+                            return;
+                        } else if ("HANDSHAKE_ERROR".equalsIgnoreCase(action)) {
+                            String reason = controlMsg.optString("reason", "Unknown reason");
+                            addChatMessage("[Error] Relay handshake rejected: " + reason);
+                            answer.complete(false);
+                            return;
+                        }
+                    } catch (Exception e) {
+                        System.err.println("Error parsing relay control message during handshake: " + e.getMessage());
+                        // Continue waiting
+                    }
+                }
+            }
+
+            @Override
+            public void onPollError(Throwable cause) {
+                // Polling failed, likely a connection issue
+                System.err.println("Error polling relay during handshake: " + cause.getMessage());
+                addChatMessage("[Error] Failed to poll relay service during handshake.");
+                answer.complete(false);
+            }
+        };
+        subscribed.set(handshake);
+        subscribeRelay(server, handshake);
+        return awaitHandshakeAnswer(answer, deadlineMillis, abandoned).whenComplete((ok, error) -> {
+            if (Boolean.TRUE.equals(ok)) return; // Already handed over
+            if (relaySubscription == handshake) relaySubscription = null;
+            relayPoller.unsubscribe(handshake);
+        });
+    }
+
+    /**
+     * Check every 500 ms whether the race was abandoned or the deadline passed, the answer itself wakes us right away
+     */
+    private CompletableFuture<Boolean> awaitHandshakeAnswer(CompletableFuture<Boolean> answer, long deadlineMillis, AtomicBoolean abandoned) {
+        if (answer.isDone()) {
+            return answer;
+        }
+        if (abandoned.get()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (System.currentTimeMillis() >= deadlineMillis) {
+            addChatMessage("[Error] Relay handshake timed out.");
+            return CompletableFuture.completedFuture(false); // Timeout
+        }
+        // Wait without holding a thread
+        Executor delay = CompletableFuture.delayedExecutor(500, TimeUnit.MILLISECONDS, networkExecutor);
+        return CompletableFuture.anyOf(answer, CompletableFuture.runAsync(() -> { }, delay))
+                .thenCompose(ignored -> awaitHandshakeAnswer(answer, deadlineMillis, abandoned));
+    }
+
+    /**
+     * If connection was made, start the polling, get data from relay
+     * The poll itself is shared with the other rooms, we subscribe to what our server sends
+     *
+     * @param server The connected server
+     */
+    private void startRelayPolling(ServerInfo server) {
+        subscribeRelay(server, relaySubscriber);
+
+        long cursor = relayClient.getPollCursor();
+        // After a lost connection the cursor carries over, the relay only sends what we missed
+        addChatMessage("[System] Relay message polling started" + (cursor >= 0 ? " (resuming after #" + cursor + ")." : "."));
+    }
+
+    /**
+     * @param server Server whose messages the subscriber gets
+     * @param subscriber Replaces our current subscription
+     */
+    private void subscribeRelay(ServerInfo server, RelayPoller.Subscriber subscriber) {
+        relaySubscription = subscriber;
+        relayPoller.subscribe(server.uuid(), subscriber);
+    }
+
+    /**
+     * Session subscription: messages go to the event executor, poll failures to the reconnect logic
+     */
+    private final RelayPoller.Subscriber relaySubscriber = new RelayPoller.Subscriber() {
+        @Override
+        public void onMessages(List<RelayMessageDTO> messages) {
+            dispatchRelayMessages(messages);
+        }
+
+        @Override
+        public void onPollError(Throwable cause) {
+            handleRelayPollError(cause);
+        }
+    };
+
+    /**
+     * Hand polled messages over to the event executor for processing
+     * @param messages Decoded messages from the relay
+     */
+    private void dispatchRelayMessages(List<RelayMessageDTO> messages) {
+        // Process the whole poll in one go, ordered with the connection state
+        post(() -> messages.forEach(this::processIncomingRelayMessage));
+    }
+
+    /**
+     * A poll failed: parse errors are reported, anything else is a connection problem
+     * @param cause The unwrapped failure, see {@link RelayPoller.Subscriber#onPollError(Throwable)}
+     */
+    private void handleRelayPollError(Throwable cause) {
+        if (cause instanceof IllegalArgumentException) { // Malformed JSON
+            if (state.get() == ConnectionState.RELAY) {
+                System.err.println("Error parsing relay messages: " + cause.getMessage());
+                // Don't necessarily disconnect for a parse error, maybe log and continue
+                addChatMessage("[Error] Could not parse message from relay.");
+            }
+            return;
+        }
+        relaySubscription = null; // The poller dropped it
+        if (state.get() == ConnectionState.RELAY) { // Only act if expecting connection
+            handleRelayConnectionError(cause); // Reconnect, or disconnect if it isn't transient
+        }
+    }
+
+    /**
+     * If relay has messages, process them
+     * @param dto Process JSON message (Represents DTO logic)
+     */
+    private void processIncomingRelayMessage(RelayMessageDTO dto) {
+        // Ensure we are still connected in relay mode before processing
+        if (state.get() != ConnectionState.RELAY) {
+            return;
+        }
+
+        // We expect messages primarily from the server we are connected to
+        ServerInfo server = currentServer;
+        if (server != null && server.uuid().equals(dto.getSender())) {
+            switch (dto.getType().toLowerCase()) {
+                case "chat":
+                case "system":
+                    // Server should have formatted this already (e.g., "[Nick] msg" or "[SERVER] info")
+                    addReceivedMessage(dto.getMessage());
+                    break;
+                case "control":
+                    // Handle control messages from server if needed (e.g., server shutdown warning)
+                    addChatMessage("[Control from Server]: " + dto.getMessage());
+                    try {
+                        JSONObject controlJson = new JSONObject(dto.getMessage());
+                        if ("SERVER_SHUTDOWN".equals(controlJson.optString("action"))) {
+                            addChatMessage("[System] Server is shutting down!");
+                            // Optionally trigger disconnect automatically
+                            // resetConnectionStateInternal(true);
+                        }
+                    } catch (Exception e) { /* Ignore parse error */ }
+                    break;
+                default:
+                    addChatMessage("[Unknown Type from Server] " + dto.getMessage());
+                    break;
+            }
+        } else {
+            // Message from unexpected sender? Log it.
+            System.out.println("Received relay message from unexpected sender: " + dto.getSender() + " (Expected: " + (server != null ? server.uuid() : "N/A") + ")");
+            // Maybe display it?
+            // addChatMessage("[" + dto.getSender().substring(0, 6) + "?] " + dto.getMessage());
+        }
+    }
+
+
+    /**
+     * Send a message using Relayed method
+     * Chat messages go through the durable outbound queue first, so they survive a failed send or a restart
+     *
+     * @param recipientUuid Represents the recipient of the server, the relay needs to know who
+     *                      will receive the message
+     *
+     * @param message Represents the message data
+     * @param type Represents what's this message for?, can be Control or Chat
+     */
+    private void sendRelayMessage(String recipientUuid, String message, String type) {
+        if ("chat".equals(type)) {
+            submitOutbound(outbound.enqueue(recipientUuid, message)); // Persisted, then sent with the coalescing window
+            return;
+        }
+        // Queued, sent in background together with anything else typed within the coalescing window
+        relaySendQueue.submit(new RelayMessageDTO(clientUuid, recipientUuid, message, type));
+    }
+
+    /**
+     * Tell the server over the relay that we're gone (CLIENT_DISCONNECT control message)
+     * @param server The server
+     * @return Completes with True if the relay took it
+     */
+    private CompletableFuture<Boolean> sendClientDisconnect(ServerInfo server) {
+        JSONObject disconnectPayload = new JSONObject();
+        disconnectPayload.put("action", "CLIENT_DISCONNECT");
+        return sendRelayMessageInternal(server.uuid(), disconnectPayload.toString(), "control");
+    }
+
+    /**
+     * Internal asynchronous send method (Using relay method)
+     *
+     * @param recipientUuid Represents the recipient of the server
+     * @param message Represents the message data
+     * @param type Represents what's this message for?, can be Control or Chat
+     * @return Completes with True if OK, False if error
+     */
+    private CompletableFuture<Boolean> sendRelayMessageInternal(String recipientUuid, String message, String type) {
+        return sendRelayMessageInternal(new RelayMessageDTO(clientUuid, recipientUuid, message, type));
+    }
+
+    /**
+     * Internal asynchronous send method (Using relay method)
+     *
+     * @param dto The message to send
+     * @return Completes with True if OK, False if error (never fails)
+     */
+    private CompletableFuture<Boolean> sendRelayMessageInternal(RelayMessageDTO dto) {
+        if (!state.get().isConnected() && !"control".equals(dto.getType())) { // Allow sending control messages like disconnect even if state slightly outdated
+            System.err.println("Cannot send relay message, not connected.");
+            return CompletableFuture.completedFuture(false);
+        }
+
+        return relayClient.send(dto).handle((ignored, error) -> {
+            if (error == null) return true;
+            handleRelaySendError(AsyncRelayClient.unwrap(error));
+            return false;
+        });
+    }
+
+    /**
+     * Internal asynchronous batched send, all messages in one POST as a JSON array
+     *
+     * @param batch Messages in sending order
+     * @return Completes with SENT if OK, UNSUPPORTED if the relay has no batch endpoint, FAILED if error
+     */
+    private CompletableFuture<RelaySendQueue.BatchResult> sendRelayBatchInternal(List<RelayMessageDTO> batch) {
+        if (!state.get().isConnected()) {
+            System.err.println("Cannot send relay batch, not connected.");
+            return CompletableFuture.completedFuture(RelaySendQueue.BatchResult.FAILED);
+        }
+
+        return relayClient.sendBatch(batch).handle((accepted, error) -> {
+            if (error == null) {
+                return accepted ? RelaySendQueue.BatchResult.SENT : RelaySendQueue.BatchResult.UNSUPPORTED;
+            }
+            handleRelaySendError(AsyncRelayClient.unwrap(error));
+            return RelaySendQueue.BatchResult.FAILED;
+        });
+    }
+
+    /**
+     * A send failed, assume a connection issue
+     * @param cause The unwrapped failure
+     */
+    private void handleRelaySendError(Throwable cause) {
+        if (cause instanceof CancellationException) return; // Aborted on shutdown
+        if (cause instanceof AsyncRelayClient.RelayStatusException) {
+            System.err.println(cause.getMessage());
+            handleRelayConnectionError(cause); // Assume connection issue on send failure
+        } else if (state.get() == ConnectionState.RELAY) { // Only log if expecting connection
+            System.err.println("Error connecting to relay service for sending: " + cause.getMessage());
+            handleRelayConnectionError(cause); // Assume connection issue
+        }
+    }
+
+    /**
+     * Handle the Relay error, if it does not respond or if we cannot establish connection/answer
+     * Transient errors (I/O, timeouts, 5xx, 408/429) start the reconnect engine, other HTTP errors disconnect
+     *
+     * @param cause The unwrapped failure
+     */
+    private void handleRelayConnectionError(Throwable cause) {
+        // Only trigger reset if we are currently connected via relay
+        if (state.get() == ConnectionState.RELAY) {
+            if (isTransientRelayError(cause)) {
+                beginReconnect(ConnectionMode.RELAY, cause.getMessage());
+                return;
+            }
+            System.err.println("Relay connection error detected. Disconnecting.");
+            post(() -> {
+                addChatMessage("[Error] Lost connection to Relay service.");
+                resetConnectionStateInternal(true);
+            });
+        }
+    }
+
+
+    /**
+     * Unsubscribe from the shared relay poll, it stops once no room is subscribed
+     */
+    private void stopRelayPolling() {
+        RelayPoller.Subscriber subscription = relaySubscription;
+        if (subscription != null) {
+            relaySubscription = null;
+            relayPoller.unsubscribe(subscription);
+        }
+    }
+}
\ No newline at end of file
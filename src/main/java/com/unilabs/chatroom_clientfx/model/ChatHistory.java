@@ -0,0 +1,178 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import javafx.collections.ObservableListBase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Bounded chat history, a ring buffer capped by message count and by (approximate) size in bytes
+ * When a cap is hit the oldest messages are evicted and handed to an optional eviction sink (e.g. spill to disk)
+ *
+ * It's an ObservableList so the view can render it directly, but it's read only through the List API,
+ * messages go in through {@link #appendAll(List)} on the FX thread.
+ */
+public class ChatHistory extends ObservableListBase<String> {
+
+    private final String[] ring;
+    private final long maxBytes;
+    private final Consumer<List<String>> evictionSink;
+
+    private int head; // Index of the oldest message
+    private int size;
+    private long bytes;
+
+    /**
+     * @param maxMessages Maximum number of messages kept in memory
+     * @param maxBytes Maximum approximate size of the kept messages
+     * @param evictionSink Receives evicted messages (oldest first), can be null
+     */
+    public ChatHistory(int maxMessages, long maxBytes, Consumer<List<String>> evictionSink) {
+        if (maxMessages <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("History caps must be positive: messages=" + maxMessages + ", bytes=" + maxBytes);
+        }
+        this.ring = new String[maxMessages];
+        this.maxBytes = maxBytes;
+        this.evictionSink = evictionSink;
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        return ring[(head + index) % ring.length];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append a batch of messages as a single change (removals of evicted messages + one addition)
+     * @param messages New messages, oldest first
+     */
+    public void appendAll(List<String> messages) {
+        if (messages.isEmpty()) return;
+
+        List<String> evicted = new ArrayList<>();
+        List<String> toAdd = messages;
+
+        // A batch bigger than the caps on its own: only its newest part can be kept
+        long batchBytes = 0;
+        int keepFrom = toAdd.size();
+        while (keepFrom > 0 && toAdd.size() - keepFrom < ring.length
+                && batchBytes + sizeOf(toAdd.get(keepFrom - 1)) <= maxBytes) {
+            keepFrom--;
+            batchBytes += sizeOf(toAdd.get(keepFrom));
+        }
+        if (keepFrom == toAdd.size()) {
+            keepFrom--; // A single message over the byte cap is still kept, on its own
+            batchBytes = sizeOf(toAdd.get(keepFrom));
+        }
+
+        beginChange();
+        try {
+            // Make room by evicting from the head
+            List<String> removed = new ArrayList<>();
+            int incoming = toAdd.size() - keepFrom;
+            while (size > 0 && (size + incoming > ring.length || bytes + batchBytes > maxBytes)) {
+                removed.add(removeHead());
+            }
+            if (!removed.isEmpty()) {
+                nextRemove(0, removed);
+                evicted.addAll(removed);
+            }
+
+            // Dropped straight away, still goes to the sink so nothing is silently lost
+            evicted.addAll(toAdd.subList(0, keepFrom));
+
+            int from = size;
+            for (int i = keepFrom; i < toAdd.size(); i++) {
+                String message = toAdd.get(i);
+                ring[(head + size) % ring.length] = message;
+                size++;
+                bytes += sizeOf(message);
+            }
+            nextAdd(from, size);
+        } finally {
+            endChange();
+        }
+
+        if (!evicted.isEmpty() && evictionSink != null) {
+            evictionSink.accept(evicted);
+        }
+    }
+
+    /**
+     * Put older messages (scrollback) in front of the history as a single change
+     * The history is a window, if this goes over the caps the newest messages are dropped from the tail
+     * (they're not sent to the eviction sink, they were already seen)
+     *
+     * @param messages Older messages, oldest first
+     * @return How many messages were actually prepended
+     */
+    public int prependAll(List<String> messages) {
+        if (messages.isEmpty()) return 0;
+
+        // Keep the part closest to what we already have, within the caps
+        long batchBytes = 0;
+        int keepFrom = messages.size();
+        while (keepFrom > 0 && messages.size() - keepFrom < ring.length
+                && batchBytes + sizeOf(messages.get(keepFrom - 1)) <= maxBytes) {
+            keepFrom--;
+            batchBytes += sizeOf(messages.get(keepFrom));
+        }
+        List<String> toPrepend = messages.subList(keepFrom, messages.size());
+        if (toPrepend.isEmpty()) return 0;
+
+        beginChange();
+        try {
+            List<String> removed = new ArrayList<>();
+            while (size > 0 && (size + toPrepend.size() > ring.length || bytes + batchBytes > maxBytes)) {
+                removed.add(0, removeTail());
+            }
+            if (!removed.isEmpty()) {
+                nextRemove(size, removed);
+            }
+
+            for (int i = toPrepend.size() - 1; i >= 0; i--) {
+                head = (head - 1 + ring.length) % ring.length;
+                ring[head] = toPrepend.get(i);
+                size++;
+                bytes += sizeOf(toPrepend.get(i));
+            }
+            nextAdd(0, toPrepend.size());
+        } finally {
+            endChange();
+        }
+        return toPrepend.size();
+    }
+
+    private String removeTail() {
+        int index = (head + size - 1) % ring.length;
+        String message = ring[index];
+        ring[index] = null;
+        size--;
+        bytes -= sizeOf(message);
+        return message;
+    }
+
+    private String removeHead() {
+        String message = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+        bytes -= sizeOf(message);
+        return message;
+    }
+
+    /**
+     * Approximate heap cost of a message, 2 bytes per char plus object overhead
+     */
+    private static long sizeOf(String message) {
+        return 40L + 2L * message.length();
+    }
+}
@@ -0,0 +1,95 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import com.unilabs.chatroom_clientfx.model.journal.MessageJournal;
+import com.unilabs.chatroom_clientfx.model.records.ServerInfo;
+import javafx.beans.property.*;
+
+/**
+ * JavaFX side of one room, adapts its {@link ChatEngine} to properties a chat view binds to
+ * Engine events arrive on the FX thread, received lines are batched once per pulse.
+ */
+public class ChatRoom {
+
+    private final ChatEngine engine;
+    private final MessageJournal journal; // Null unless this room's messages are journaled
+    private final CoalescingMessageQueue inboundMessages;
+
+    // JavaFX Properties for UI binding/updates, only written on the FX thread
+    private final ListProperty<String> chatMessages;
+    private final BooleanProperty connected = new SimpleBooleanProperty(false);
+    private final StringProperty connectionStatus = new SimpleStringProperty("Disconnected");
+    private final ObjectProperty<ConnectionMode> currentMode = new SimpleObjectProperty<>(ConnectionMode.NONE);
+    private final ObjectProperty<ConnectionState> connectionState = new SimpleObjectProperty<>(ConnectionState.NONE); // Mirror of the engine's state
+    private final ObjectProperty<ServerInfo> server = new SimpleObjectProperty<>(); // Null while disconnected
+    private final LongProperty roundTripMillis = new SimpleLongProperty(-1); // Direct heartbeat RTT, -1 if unknown
+
+    /**
+     * @param sessions Opens the room's engine
+     * @param history Where the room's lines are kept
+     * @param journal Journal received lines go to, can be null
+     */
+    ChatRoom(ChatSessionManager sessions, ChatHistory history, MessageJournal journal) {
+        this.journal = journal;
+        this.chatMessages = new SimpleListProperty<>(history);
+        // Incoming lines are queued here and added to chatMessages once per frame
+        this.inboundMessages = new CoalescingMessageQueue(history::appendAll);
+        this.inboundMessages.start();
+        this.engine = sessions.openSession(new ChatEngine.Listener() {
+            @Override
+            public void onStatus(String status) {
+                connectionStatus.set(status);
+            }
+
+            @Override
+            public void onMessageReceived(String message) {
+                inboundMessages.offer(message); // Shown on the next pulse, together with anything else queued
+                if (journal != null) journal.append(message);
+            }
+
+            @Override
+            public void onNotice(String notice) {
+                inboundMessages.offer(notice);
+            }
+
+            @Override
+            public void onConnectionChanged(ConnectionState state, ServerInfo current) {
+                connectionState.set(state);
+                currentMode.set(state.mode());
+                connected.set(state.isConnected());
+                if (current != null || state == ConnectionState.NONE) server.set(current); // Keep the name while disconnecting
+            }
+
+            @Override
+            public void onRoundTrip(long rttMillis) {
+                roundTripMillis.set(rttMillis);
+            }
+        });
+    }
+
+    // --- Property Getters for Controller ---
+    public ReadOnlyListProperty<String> chatMessagesProperty() { return chatMessages; }
+    public ReadOnlyBooleanProperty connectedProperty() { return connected; }
+    public ReadOnlyStringProperty connectionStatusProperty() { return connectionStatus; }
+    public ReadOnlyObjectProperty<ConnectionMode> currentModeProperty() { return currentMode; }
+    public ReadOnlyObjectProperty<ConnectionState> connectionStateProperty() { return connectionState; }
+    public ReadOnlyObjectProperty<ServerInfo> serverProperty() { return server; }
+    public ReadOnlyLongProperty roundTripMillisProperty() { return roundTripMillis; }
+
+    /**
+     * @return The engine behind this room
+     */
+    public ChatEngine getEngine() { return engine; }
+
+    // --- Core Actions Initiated by Controller, see ChatEngine ---
+
+    public void connectToServer(ServerInfo server, String nickname) { engine.connectToServer(server, nickname); }
+    public void sendMessage(String message) { engine.sendMessage(message); }
+    public void disconnect() { engine.disconnect(); }
+
+    /**
+     * Stop showing new lines, the engine is closed by its session manager
+     */
+    void stop() {
+        inboundMessages.stop();
+    }
+}
@@ -0,0 +1,104 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import com.unilabs.chatroom_clientfx.model.records.ServerInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Several chat sessions at once, one {@link ChatEngine} per room
+ *
+ * The rooms share one {@link ChatTransports}: the same client UUID, one relay poll that routes messages to the room
+ * of their sender, one direct I/O thread and one outbound queue. Each room keeps its own transport choice,
+ * state machine and reconnects. A server can only be open in one room at a time.
+ * Headless like the engine, the UI wraps each room on its own.
+ */
+public class ChatSessionManager {
+
+    private final String discoveryUrl;
+    private final ChatTransports transports;
+    private final Executor eventExecutor; // Handed to every engine, null gives each its own event thread
+    private final List<ChatEngine> sessions = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param discoveryUrl URL where the discover server is (RaquelAPI)
+     * @param relayUrl URL where the relay server is (RaquelAPI)
+     * @param eventExecutor Runs state changes and listener calls of every room (e.g. Platform::runLater), must run
+     *                      tasks in order. Null for a dedicated daemon thread per room
+     */
+    public ChatSessionManager(String discoveryUrl, String relayUrl, Executor eventExecutor) {
+        this.discoveryUrl = discoveryUrl;
+        this.transports = new ChatTransports(relayUrl);
+        this.eventExecutor = eventExecutor;
+    }
+
+    /**
+     * Add a room, not connected yet
+     * @param listener Registered before anything is reported, can be null
+     * @return The room's engine
+     */
+    public ChatEngine openSession(ChatEngine.Listener listener) {
+        ChatEngine session = new ChatEngine(discoveryUrl, transports, eventExecutor, listener);
+        sessions.add(session);
+        return session;
+    }
+
+    /**
+     * Disconnect a room and drop it, the other rooms keep going
+     * Doesn't block, the shutdown (which gives the CLIENT_DISCONNECT a moment to reach the relay) runs on a network thread
+     *
+     * @param session Engine from {@link #openSession(ChatEngine.Listener)}
+     */
+    public void closeSession(ChatEngine session) {
+        if (!sessions.remove(session)) return;
+        try {
+            transports.networkExecutor().execute(session::shutdown);
+        } catch (RejectedExecutionException e) {
+            session.shutdown(); // Shutting down anyway
+        }
+    }
+
+    /**
+     * @param serverUuid A server
+     * @return The room connected (or connecting) to it, null if none
+     */
+    public ChatEngine findSession(String serverUuid) {
+        for (ChatEngine session : sessions) {
+            ServerInfo server = session.getCurrentServer();
+            if (server != null && server.uuid().equals(serverUuid)) return session;
+        }
+        return null;
+    }
+
+    public List<ChatEngine> getSessions() { return List.copyOf(sessions); }
+    public String getClientUuid() { return transports.getClientUuid(); }
+
+    /**
+     * Shut every room down, then the shared transports
+     * The rooms close in parallel, each waits up to 2 s for its disconnect notice, so this blocks about that long
+     * however many rooms are open. Don't call it on the FX thread.
+     */
+    public void shutdown() {
+        List<CompletableFuture<?>> closing = new ArrayList<>();
+        for (ChatEngine session : sessions) {
+            try {
+                closing.add(CompletableFuture.runAsync(session::shutdown, transports.networkExecutor()));
+            } catch (RejectedExecutionException e) {
+                session.shutdown(); // Shutting down anyway
+            }
+        }
+        sessions.clear();
+        try {
+            CompletableFuture.allOf(closing.toArray(CompletableFuture<?>[]::new)).join();
+        } catch (CompletionException e) {
+            System.err.println("Error shutting down a chat session: " + e.getCause().getMessage());
+        }
+        transports.shutdown();
+        System.out.println("ChatSessionManager shutdown complete.");
+    }
+}
@@ -0,0 +1,152 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import com.unilabs.chatroom_clientfx.model.direct.DirectIoLoop;
+import com.unilabs.chatroom_clientfx.model.journal.OutboundQueue;
+import com.unilabs.chatroom_clientfx.model.relay.AsyncRelayClient;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the chat sessions of one client share: the client UUID, the HTTP client and network threads,
+ * the relay inbox with its single poll loop, the durable outbound queue and the direct I/O thread
+ * A lone {@link ChatEngine} creates its own, {@link ChatSessionManager} hands one to every room.
+ */
+public class ChatTransports {
+
+    // Relay polling: how long we ask the relay to hold a long-poll open
+    private static final int RELAY_LONG_POLL_WAIT_SECONDS = 25;
+    // Adaptive polling (fallback when no long-poll), can be tuned with -Dchatroom.relay.poll.minMillis / maxMillis
+    private static final long RELAY_POLL_MIN_DELAY_MILLIS = Long.getLong("chatroom.relay.poll.minMillis", 500L);
+    private static final long RELAY_POLL_MAX_DELAY_MILLIS = Long.getLong("chatroom.relay.poll.maxMillis", 30_000L);
+    // Messages of a server nobody is subscribed to are held this long, enough for a room's reconnect attempts
+    private static final long RELAY_HELD_TTL_SECONDS = Long.getLong("chatroom.relay.heldTtlSeconds", 300L);
+    // Durable queue of outgoing chat messages, -Dchatroom.outbox.file to move it
+    private static final String OUTBOX_FILE = System.getProperty("chatroom.outbox.file",
+            Path.of(System.getProperty("user.home"), ".chatroom_clientfx", "outbox.log").toString());
+
+    private final String relayUrl;
+    private final String clientUuid;
+    private final ExecutorService networkExecutor; // For background network tasks, see NetworkExecutors
+    private final HttpClient httpClient;
+    private final AsyncRelayClient relayClient; // Non-blocking relay I/O, no thread held per request
+    private final RelayPoller relayPoller; // One poll of our inbox for every relay session
+    private final ScheduledExecutorService relaySendExecutor; // Timer for the send coalescing windows
+    private final OutboundQueue outbound; // Entries carry their server UUID, sessions only touch their own
+    private final Set<String> claimedServers = ConcurrentHashMap.newKeySet(); // Server UUIDs with a session
+    private DirectIoLoop directIoLoop; // One selector thread for all direct sessions, created on first use
+
+    /**
+     * @param relayUrl URL where the relay server is (RaquelAPI)
+     */
+    public ChatTransports(String relayUrl) {
+        // Ensure URL doesn't end with '/'
+        this.relayUrl = relayUrl.endsWith("/") ? relayUrl.substring(0, relayUrl.length() - 1) : relayUrl;
+        this.clientUuid = UUID.randomUUID().toString();
+        // Blocking network tasks run on virtual threads unless -Dchatroom.network.threads=platform
+        this.networkExecutor = NetworkExecutors.create(NetworkExecutors.configuredMode(), "Network-");
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(networkExecutor) // HttpClient callbacks too, instead of its own cached pool
+                .build();
+        this.relayClient = new AsyncRelayClient(httpClient, this.relayUrl, clientUuid, networkExecutor);
+        this.relayPoller = new RelayPoller(relayClient, RELAY_LONG_POLL_WAIT_SECONDS,
+                RELAY_POLL_MIN_DELAY_MILLIS, RELAY_POLL_MAX_DELAY_MILLIS, TimeUnit.SECONDS.toMillis(RELAY_HELD_TTL_SECONDS));
+        this.relaySendExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true); // Allow JVM exit
+            t.setName("Relay-Send-Thread");
+            return t;
+        });
+        this.outbound = openOutboundQueue();
+        System.out.println("Client UUID: " + clientUuid);
+    }
+
+    public String getClientUuid() { return clientUuid; }
+    public String getRelayUrl() { return relayUrl; }
+
+    ExecutorService networkExecutor() { return networkExecutor; }
+    HttpClient httpClient() { return httpClient; }
+    AsyncRelayClient relayClient() { return relayClient; }
+    RelayPoller relayPoller() { return relayPoller; }
+    ScheduledExecutorService relaySendExecutor() { return relaySendExecutor; }
+    OutboundQueue outbound() { return outbound; }
+
+    /**
+     * @return The running I/O loop, (re)started if needed
+     * @throws IOException If the selector cannot be opened
+     */
+    synchronized DirectIoLoop directIoLoop() throws IOException {
+        if (directIoLoop == null || !directIoLoop.isRunning()) {
+            directIoLoop = new DirectIoLoop("Direct-IO-Thread");
+        }
+        return directIoLoop;
+    }
+
+    /**
+     * Reserve a server for one session, relay messages are routed by the sender's UUID so it can't have two
+     * @param serverUuid The server
+     * @return False if another session has it
+     */
+    boolean claimServer(String serverUuid) {
+        return claimedServers.add(serverUuid);
+    }
+
+    /**
+     * @param serverUuid Server of a session that ended
+     */
+    void releaseServer(String serverUuid) {
+        claimedServers.remove(serverUuid);
+    }
+
+    /**
+     * Stop everything, the sessions using these transports must be shut down first
+     */
+    public void shutdown() {
+        relayPoller.shutdown();
+        relayClient.cancelAll(); // Abort whatever relay request is still in flight
+        networkExecutor.shutdown();
+        relaySendExecutor.shutdown();
+        try {
+            if (!networkExecutor.awaitTermination(2, TimeUnit.SECONDS)) {
+                networkExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            networkExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        outbound.close(); // Unsent messages stay on disk for next time
+        synchronized (this) {
+            if (directIoLoop != null) {
+                directIoLoop.close();
+                directIoLoop = null;
+            }
+        }
+    }
+
+    /**
+     * Open the durable outbound queue, falls back to memory only if the file can't be used
+     * @return The queue
+     */
+    private static OutboundQueue openOutboundQueue() {
+        try {
+            OutboundQueue queue = OutboundQueue.open(Path.of(OUTBOX_FILE));
+            if (queue.size() > 0) {
+                System.out.println(queue.size() + " unsent messages from a previous session are queued.");
+            }
+            return queue;
+        } catch (IOException e) {
+            System.err.println("Could not open outbound queue, unsent messages won't survive a restart: " + e.getMessage());
+            return OutboundQueue.inMemory();
+        }
+    }
+}
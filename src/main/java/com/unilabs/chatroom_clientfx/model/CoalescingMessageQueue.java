@@ -0,0 +1,101 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Lock-free inbound queue for chat lines, drained once per JavaFX pulse
+ * Any thread can offer lines, the FX thread gets them as a single batch per frame
+ * instead of one Platform.runLater per line
+ * The pulse timer only runs while lines are waiting, an idle room costs nothing per frame.
+ */
+public class CoalescingMessageQueue {
+
+    // Upper bound per frame so a huge burst can't stall a single pulse, the rest goes next frame
+    private static final int MAX_BATCH_PER_PULSE = 5000;
+
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final Consumer<List<String>> sink;
+    private final AtomicBoolean armed = new AtomicBoolean(); // Pulse started or about to be, set by whoever starts it
+    private volatile boolean running;
+    private final AnimationTimer pulse = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drain();
+        }
+    };
+
+    /**
+     * @param sink Receives each batch on the FX thread
+     */
+    public CoalescingMessageQueue(Consumer<List<String>> sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Start delivering, on the next pulse after a line is queued. Safe to call from any thread
+     */
+    public void start() {
+        running = true;
+        arm();
+    }
+
+    /**
+     * Stop delivering, whatever is still queued stays queued
+     */
+    public void stop() {
+        running = false;
+        onFxThread(() -> {
+            pulse.stop();
+            armed.set(false);
+            arm(); // Started again meanwhile
+        });
+    }
+
+    /**
+     * Queue a line, never blocks
+     * @param message The chat line
+     */
+    public void offer(String message) {
+        pending.add(message);
+        arm();
+    }
+
+    /**
+     * Start the pulse if lines are waiting and nobody started it yet
+     */
+    private void arm() {
+        if (running && !pending.isEmpty() && armed.compareAndSet(false, true)) {
+            onFxThread(pulse::start);
+        }
+    }
+
+    private static void onFxThread(Runnable task) {
+        if (Platform.isFxApplicationThread()) {
+            task.run();
+        } else {
+            Platform.runLater(task);
+        }
+    }
+
+    private void drain() {
+        List<String> batch = new ArrayList<>(Math.min(pending.size(), MAX_BATCH_PER_PULSE));
+        String message;
+        while (batch.size() < MAX_BATCH_PER_PULSE && (message = pending.poll()) != null) {
+            batch.add(message);
+        }
+        if (!batch.isEmpty()) sink.accept(batch);
+        if (pending.isEmpty()) {
+            pulse.stop();
+            armed.set(false);
+            arm(); // A line offered after the check found the pulse still armed, start it again
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Happy-eyeballs style race between a preferred and a fallback connection attempt
+ *
+ * The primary starts right away, the secondary after a short head start (or as soon as the primary fails).
+ * The first attempt that succeeds wins, the other one is abandoned: stopped if still running,
+ * undone if it already succeeded or succeeds later.
+ */
+public class ConnectionRacer {
+
+    /**
+     * One way of connecting
+     */
+    public interface Attempt {
+        /**
+         * @return Completes with True when connected, False (or exceptionally) when it failed
+         */
+        CompletableFuture<Boolean> start();
+
+        /**
+         * The attempt lost the race, stop it and tear down whatever it set up
+         * Called at most once, only for started attempts, possibly while start()'s future is still pending.
+         */
+        void abandon();
+    }
+
+    /**
+     * Which attempt won
+     */
+    public enum Winner { PRIMARY, SECONDARY, NONE }
+
+    private final Attempt primary;
+    private final Attempt secondary;
+    private final long secondaryDelayMillis;
+    private final Executor executor;
+
+    private final CompletableFuture<Winner> result = new CompletableFuture<>();
+    private final AtomicBoolean secondaryStarted = new AtomicBoolean(false);
+    private final AtomicBoolean primaryAbandoned = new AtomicBoolean(false);
+    private final AtomicBoolean secondaryAbandoned = new AtomicBoolean(false);
+    private final AtomicInteger pendingAttempts;
+
+    private ConnectionRacer(Attempt primary, Attempt secondary, long secondaryDelayMillis, Executor executor) {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.secondaryDelayMillis = secondaryDelayMillis;
+        this.executor = executor;
+        this.pendingAttempts = new AtomicInteger((primary != null ? 1 : 0) + (secondary != null ? 1 : 0));
+    }
+
+    /**
+     * Run the race
+     *
+     * @param primary Preferred attempt, can be null
+     * @param secondary Fallback attempt, can be null
+     * @param secondaryDelayMillis Head start given to the primary
+     * @param executor Runs the delayed start of the secondary
+     * @return Completes with the winner, NONE once every attempt failed
+     */
+    public static CompletableFuture<Winner> race(Attempt primary, Attempt secondary, long secondaryDelayMillis, Executor executor) {
+        ConnectionRacer racer = new ConnectionRacer(primary, secondary, secondaryDelayMillis, executor);
+        racer.run();
+        return racer.result;
+    }
+
+    private void run() {
+        if (pendingAttempts.get() == 0) {
+            result.complete(Winner.NONE);
+            return;
+        }
+        if (primary == null) {
+            startSecondary();
+            return;
+        }
+        start(primary, Winner.PRIMARY);
+        if (secondary != null) {
+            Executor delayed = CompletableFuture.delayedExecutor(secondaryDelayMillis, TimeUnit.MILLISECONDS, executor);
+            CompletableFuture.runAsync(this::startSecondary, delayed);
+        }
+    }
+
+    private void startSecondary() {
+        if (secondary == null || result.isDone()) return; // Primary already won, never start it
+        if (!secondaryStarted.compareAndSet(false, true)) return;
+        start(secondary, Winner.SECONDARY);
+    }
+
+    private void start(Attempt attempt, Winner side) {
+        CompletableFuture<Boolean> future;
+        try {
+            future = attempt.start();
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((ok, error) -> onAttemptDone(side, error == null && Boolean.TRUE.equals(ok)));
+    }
+
+    private void onAttemptDone(Winner side, boolean succeeded) {
+        if (succeeded) {
+            if (result.complete(side)) {
+                abandon(side == Winner.PRIMARY ? Winner.SECONDARY : Winner.PRIMARY);
+            } else {
+                abandon(side); // Connected, but the other one was faster
+            }
+            return;
+        }
+        if (side == Winner.PRIMARY) {
+            startSecondary(); // No point waiting out the head start
+        }
+        if (pendingAttempts.decrementAndGet() == 0) {
+            result.complete(Winner.NONE);
+        }
+    }
+
+    private void abandon(Winner side) {
+        if (side == Winner.PRIMARY) {
+            if (primary != null && primaryAbandoned.compareAndSet(false, true)) primary.abandon();
+        } else if (secondaryStarted.get() && secondaryAbandoned.compareAndSet(false, true)) {
+            secondary.abandon();
+        }
+    }
+}
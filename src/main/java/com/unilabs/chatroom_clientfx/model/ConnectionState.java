@@ -0,0 +1,27 @@
+package com.unilabs.chatroom_clientfx.model;
+
+/**
+ * Connection lifecycle: NONE -> CONNECTING -> DIRECT / RELAY -> DISCONNECTING -> NONE
+ * Held in an AtomicReference by the engine, transitions are compare-and-set so racing threads can't both win one
+ */
+public enum ConnectionState {
+    NONE, CONNECTING, DIRECT, RELAY, DISCONNECTING;
+
+    /**
+     * @return True while a session is up (DIRECT or RELAY, also while it reconnects)
+     */
+    public boolean isConnected() {
+        return this == DIRECT || this == RELAY;
+    }
+
+    /**
+     * @return Transport in use, NONE unless connected
+     */
+    public ConnectionMode mode() {
+        return switch (this) {
+            case DIRECT -> ConnectionMode.DIRECT;
+            case RELAY -> ConnectionMode.RELAY;
+            default -> ConnectionMode.NONE;
+        };
+    }
+}
@@ -0,0 +1,122 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import com.unilabs.chatroom_clientfx.model.records.ServerInfo;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * On-disk cache of the last discovery answer, so the server list shows up at launch without waiting for the network
+ *
+ * Keeps the raw get_servers.php body (parsed again with {@link ServerInfo#parseServerList(String)}),
+ * the discovery URL it came from, when it was fetched and the response validators (ETag / Last-Modified)
+ * used to revalidate it with a conditional GET. Entries older than the TTL are still shown, just revalidated.
+ */
+public class DiscoveryCache {
+
+    /**
+     * A cached discovery answer
+     * @param servers Parsed server list
+     * @param fetchedAtMillis When it was fetched (or last confirmed unchanged)
+     * @param etag ETag of the response, null if the server sent none
+     * @param lastModified Last-Modified of the response, null if the server sent none
+     */
+    public record Entry(List<ServerInfo> servers, long fetchedAtMillis, String etag, String lastModified) {}
+
+    private final Path file;
+    private final String discoveryUrl;
+    private final long ttlMillis;
+
+    /**
+     * @param file Cache file, its directory is created on first save
+     * @param discoveryUrl Discovery service the entries belong to, entries from another URL are ignored
+     * @param ttlMillis How long an entry is considered fresh
+     */
+    public DiscoveryCache(Path file, String discoveryUrl, long ttlMillis) {
+        this.file = file;
+        this.discoveryUrl = discoveryUrl;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Read the cached entry
+     * @return The entry, null if there's none (or it's unreadable / for another discovery URL)
+     */
+    public Entry load() {
+        try {
+            JSONObject json = readJson();
+            if (json == null) return null;
+            List<ServerInfo> servers = ServerInfo.parseServerList(json.optString("body"));
+            return new Entry(servers, json.optLong("fetchedAt", 0L),
+                    json.optString("etag", null), json.optString("lastModified", null));
+        } catch (Exception e) { // IO or JSON, a broken cache is just a cache miss
+            System.err.println("Ignoring unreadable discovery cache " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param entry A cached entry
+     * @return True if it's younger than the TTL
+     */
+    public boolean isFresh(Entry entry) {
+        return entry != null && System.currentTimeMillis() - entry.fetchedAtMillis() < ttlMillis;
+    }
+
+    /**
+     * Store a discovery answer, written to a temp file and moved in place so a crash never leaves half a cache
+     * @param body Raw get_servers.php body
+     * @param etag ETag response header, can be null
+     * @param lastModified Last-Modified response header, can be null
+     */
+    public void save(String body, String etag, String lastModified) {
+        JSONObject json = new JSONObject();
+        json.put("discoveryUrl", discoveryUrl);
+        json.put("fetchedAt", System.currentTimeMillis());
+        json.put("body", body);
+        json.put("etag", etag); // put(key, null) leaves the key out
+        json.put("lastModified", lastModified);
+        write(json);
+    }
+
+    /**
+     * The server answered 304 Not Modified, the cached body is still current: restart its TTL
+     */
+    public void markValidated() {
+        try {
+            JSONObject json = readJson();
+            if (json == null) return;
+            json.put("fetchedAt", System.currentTimeMillis());
+            write(json);
+        } catch (Exception e) {
+            System.err.println("Error updating discovery cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    private JSONObject readJson() throws IOException {
+        if (!Files.isRegularFile(file)) return null;
+        JSONObject json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+        return discoveryUrl.equals(json.optString("discoveryUrl")) ? json : null;
+    }
+
+    private void write(JSONObject json) {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(temp, json.toString(), StandardCharsets.UTF_8);
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing discovery cache " + file + ": " + e.getMessage());
+        }
+    }
+}
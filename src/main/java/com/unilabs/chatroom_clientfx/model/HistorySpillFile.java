@@ -0,0 +1,69 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Eviction sink for {@link ChatHistory}, appends evicted messages to a plain text file
+ * Writes happen on a background thread so the FX thread never touches the disk
+ */
+public class HistorySpillFile implements Consumer<List<String>>, AutoCloseable {
+
+    private final Path file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "History-Spill-Thread");
+        t.setDaemon(true); // Allow JVM exit
+        return t;
+    });
+
+    /**
+     * @param file File that receives the evicted messages, one per line
+     */
+    public HistorySpillFile(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public void accept(List<String> evicted) {
+        List<String> lines = new ArrayList<>(evicted); // Caller may reuse its list
+        try {
+            writer.submit(() -> {
+                try {
+                    Path parent = file.toAbsolutePath().getParent();
+                    if (parent != null) Files.createDirectories(parent);
+                    Files.write(file, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                } catch (IOException e) {
+                    System.err.println("Error spilling chat history to " + file + ": " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            System.err.println("History spill closed, dropping " + lines.size() + " evicted messages.");
+        }
+    }
+
+    /**
+     * Finish pending writes and stop the writer thread
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(2, TimeUnit.SECONDS)) {
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import com.unilabs.chatroom_clientfx.model.records.ServerInfo;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures TCP connect round-trip time to direct-capable servers, used to rank the server list
+ *
+ * Probes run in parallel on the given executor, at most maxConcurrent connects at a time.
+ * Results are cached per host:port for a TTL, so probing the same list again only measures what's new or stale.
+ */
+public class LatencyProber {
+
+    /**
+     * One measurement
+     * @param rttMillis Connect time, -1 if the server was unreachable
+     * @param measuredAtMillis When it was taken
+     */
+    public record Measurement(long rttMillis, long measuredAtMillis) {}
+
+    private final Executor executor;
+    private final Semaphore permits;
+    private final int timeoutMillis;
+    private final long ttlMillis;
+
+    private final Map<String, Measurement> cache = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Measurement>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param executor Runs the (blocking) connects
+     * @param maxConcurrent Maximum simultaneous connects
+     * @param timeoutMillis Connect timeout, slower servers count as unreachable
+     * @param ttlMillis How long a measurement is reused
+     */
+    public LatencyProber(Executor executor, int maxConcurrent, int timeoutMillis, long ttlMillis) {
+        this.executor = executor;
+        this.permits = new Semaphore(Math.max(1, maxConcurrent));
+        this.timeoutMillis = timeoutMillis;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Probe the direct-capable servers of a list, relay-only servers are skipped
+     * @param servers Servers to probe
+     * @return Completes with the measurements by server UUID (cached or new) once every probe finished
+     */
+    public CompletableFuture<Map<String, Measurement>> probe(Collection<ServerInfo> servers) {
+        List<ServerInfo> probed = new ArrayList<>();
+        List<CompletableFuture<Measurement>> pending = new ArrayList<>();
+        for (ServerInfo server : servers) {
+            if (!server.supportsDirect()) continue;
+            probed.add(server);
+            pending.add(measure(server.host(), server.port()));
+        }
+        return CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            Map<String, Measurement> results = new HashMap<>();
+            for (int i = 0; i < probed.size(); i++) {
+                results.put(probed.get(i).uuid(), pending.get(i).join());
+            }
+            return results;
+        });
+    }
+
+    private CompletableFuture<Measurement> measure(String host, int port) {
+        String key = host + ":" + port;
+        Measurement cached = cache.get(key);
+        if (cached != null && System.currentTimeMillis() - cached.measuredAtMillis() < ttlMillis) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        // Servers sharing a host:port (or overlapping probe rounds) share one connect
+        CompletableFuture<Measurement> started = new CompletableFuture<>();
+        CompletableFuture<Measurement> future = inFlight.putIfAbsent(key, started);
+        if (future != null) return future;
+        started.whenComplete((measurement, error) -> {
+            if (measurement != null) cache.put(key, measurement);
+            inFlight.remove(key);
+        });
+        try {
+            executor.execute(() -> started.complete(connect(host, port)));
+        } catch (RuntimeException e) { // Executor shut down
+            started.completeExceptionally(e);
+        }
+        return started;
+    }
+
+    private Measurement connect(String host, int port) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Measurement(-1, System.currentTimeMillis());
+        }
+        try {
+            InetSocketAddress address = new InetSocketAddress(host, port); // Resolve first, not part of the RTT
+            if (address.isUnresolved()) return new Measurement(-1, System.currentTimeMillis());
+            long start = System.nanoTime();
+            try (Socket socket = new Socket()) {
+                socket.connect(address, timeoutMillis);
+                return new Measurement(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), System.currentTimeMillis());
+            }
+        } catch (IOException e) {
+            return new Measurement(-1, System.currentTimeMillis());
+        } finally {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking network work (discovery fetch, address resolution, journal reads, HttpClient callbacks)
+ *
+ * By default every task gets its own virtual thread, so a burst of blocking calls doesn't turn into a burst of OS threads.
+ * -Dchatroom.network.threads=platform switches back to a cached pool of (daemon) platform threads.
+ */
+public final class NetworkExecutors {
+
+    /**
+     * How blocking network tasks are run
+     */
+    public enum Mode { VIRTUAL, PLATFORM }
+
+    private NetworkExecutors() {}
+
+    /**
+     * @return The mode selected with -Dchatroom.network.threads (virtual|platform), virtual if unset or unknown
+     */
+    public static Mode configuredMode() {
+        String value = System.getProperty("chatroom.network.threads", "virtual");
+        if ("platform".equalsIgnoreCase(value)) return Mode.PLATFORM;
+        if (!"virtual".equalsIgnoreCase(value)) {
+            System.err.println("Unknown chatroom.network.threads value '" + value + "', using virtual threads.");
+        }
+        return Mode.VIRTUAL;
+    }
+
+    /**
+     * Create an executor for blocking network tasks
+     * @param mode Virtual or platform threads
+     * @param namePrefix Thread name prefix, threads are numbered after it
+     * @return A new executor, caller shuts it down
+     */
+    public static ExecutorService create(Mode mode, String namePrefix) {
+        if (mode == Mode.VIRTUAL) {
+            // Virtual threads are always daemon, nothing to set
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory());
+        }
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true); // Allow JVM exit
+            t.setName(namePrefix + counter.getAndIncrement());
+            return t;
+        };
+        return Executors.newCachedThreadPool(factory);
+    }
+}
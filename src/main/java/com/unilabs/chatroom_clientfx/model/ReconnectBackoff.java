@@ -0,0 +1,57 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Delays between reconnect attempts: exponential backoff with full jitter
+ * Attempt n (from 0) waits a random time in [0, min(max, base * 2^(n+1))], so clients dropped by the same outage
+ * don't all come back at the same moment, not even on the first attempt. The first delay averages base.
+ */
+public class ReconnectBackoff {
+
+    private final long baseMillis;
+    private final long maxMillis;
+    private final int maxAttempts;
+    private int attempts; // Guarded by "this"
+
+    /**
+     * @param baseMillis Average delay of the first attempt, doubles with each further attempt
+     * @param maxMillis Longest delay
+     * @param maxAttempts Attempts before giving up
+     */
+    public ReconnectBackoff(long baseMillis, long maxMillis, int maxAttempts) {
+        this.baseMillis = Math.max(1, baseMillis);
+        this.maxMillis = Math.max(this.baseMillis, maxMillis);
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Delay before the next attempt, counts it as made
+     * @return Milliseconds to wait, -1 once every attempt was used
+     */
+    public synchronized long nextDelayMillis() {
+        if (attempts >= maxAttempts) return -1;
+        long ceiling = baseMillis << Math.min(attempts + 1, 30);
+        ceiling = (ceiling <= 0 || ceiling > maxMillis) ? maxMillis : ceiling;
+        attempts++;
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @return Attempts made since the last reset
+     */
+    public synchronized int attempts() {
+        return attempts;
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Back to the shortest delay (after a successful reconnect)
+     */
+    public synchronized void reset() {
+        attempts = 0;
+    }
+}
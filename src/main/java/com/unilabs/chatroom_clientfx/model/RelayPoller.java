@@ -0,0 +1,457 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import com.unilabs.chatroom_clientfx.model.dto.RelayMessageDTO;
+import com.unilabs.chatroom_clientfx.model.relay.AsyncRelayClient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One relay poll loop for every session of a client
+ * The relay inbox belongs to the client UUID, not to a server, so sessions with several servers share it:
+ * each session subscribes with its server's UUID and gets what that server sent, in order.
+ *
+ * Long-poll is tried first, if the relay doesn't hold the request we fall back to adaptive polling.
+ * The loop runs while anyone is subscribed. A failed poll (other than a malformed body) ends every subscription,
+ * each subscriber is told and subscribes again once its session is back.
+ * The poll cursor has moved past whatever a poll returned, so messages of a server nobody is subscribed to right now
+ * (its room is reconnecting, or between handshake and session) are held and handed over on the next subscribe.
+ * Held messages are bounded: per server, in total and in how many servers, oldest first, and dropped once nobody
+ * subscribed for the held TTL, so senders we never talk to (anyone can post to our inbox) can't pile up.
+ */
+public class RelayPoller {
+
+    static final int MAX_HELD_PER_SERVER = 1000; // Oldest are dropped beyond this
+    static final int MAX_HELD_MESSAGES = 2000; // All servers together, the longest held server's oldest go first
+    static final int MAX_HELD_SERVERS = 16; // The longest held server is dropped to make room
+
+    /**
+     * A session reading its server's messages
+     */
+    public interface Subscriber {
+        /**
+         * Messages from the subscribed server (network thread)
+         * @param messages In the order the relay returned them
+         */
+        void onMessages(List<RelayMessageDTO> messages);
+
+        /**
+         * A poll failed (network thread)
+         * @param cause Unwrapped failure, IllegalArgumentException for a malformed body (polling goes on after a delay,
+         *              reported once until a poll parses again),
+         *              anything else ended the subscription
+         */
+        void onPollError(Throwable cause);
+    }
+
+    private final AsyncRelayClient relayClient;
+    private final int longPollWaitSeconds;
+    private final long minDelayMillis;
+    private final long maxDelayMillis;
+    private final long heldTtlMillis;
+    // Routing, guarded by itself and taken before "this": Server UUID -> subscriber / messages waiting for one
+    private final Map<String, Subscriber> subscribers = new HashMap<>();
+    private final Map<String, Held> held = new LinkedHashMap<>(); // Longest held first
+    private int heldCount; // Messages in held
+
+    // Loop state, guarded by "this"
+    private boolean running;
+    private int generation; // Bumped on start/stop, callbacks of an older loop see it and stop
+    private ScheduledExecutorService timer; // Timer for adaptive polling
+    private CompletableFuture<?> inFlight; // Cancelled by stop
+    private AdaptivePollScheduler adaptive; // Only used when the relay has no long-poll
+    private long parseErrorDelayMillis; // 0 while polls parse, otherwise the wait before the next long-poll
+
+    /**
+     * @param relayClient Client of the shared inbox
+     * @param longPollWaitSeconds How long we ask the relay to hold a long-poll open
+     * @param minDelayMillis Adaptive polling delay right after activity
+     * @param maxDelayMillis Adaptive polling ceiling while every room is quiet
+     * @param heldTtlMillis How long a server's messages are held without a subscriber
+     */
+    public RelayPoller(AsyncRelayClient relayClient, int longPollWaitSeconds, long minDelayMillis, long maxDelayMillis,
+                       long heldTtlMillis) {
+        this.relayClient = relayClient;
+        this.longPollWaitSeconds = longPollWaitSeconds;
+        this.minDelayMillis = minDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.heldTtlMillis = heldTtlMillis;
+    }
+
+    /**
+     * Messages of a server nobody is subscribed to
+     */
+    private static final class Held {
+        final Deque<RelayMessageDTO> messages = new ArrayDeque<>();
+        final long sinceMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Receive a server's messages, starts the loop if it isn't running
+     * Messages held for the server are handed over first.
+     *
+     * @param serverUuid Sender to route to the subscriber, replaces an earlier subscriber of the same server
+     * @param subscriber The session
+     */
+    public void subscribe(String serverUuid, Subscriber subscriber) {
+        synchronized (subscribers) {
+            subscribers.put(serverUuid, subscriber);
+            expireHeld();
+            Deque<RelayMessageDTO> waiting = removeHeld(serverUuid);
+            if (waiting != null) subscriber.onMessages(new ArrayList<>(waiting));
+        }
+        synchronized (this) {
+            if (!running) {
+                start();
+            } else if (adaptive != null) {
+                adaptive.onActivity(); // A session is waiting for its first messages, poll fast
+            }
+        }
+    }
+
+    /**
+     * Stop receiving, the loop stops with the last subscriber
+     * @param subscriber The session, nothing happens if it isn't subscribed (anymore)
+     */
+    public void unsubscribe(Subscriber subscriber) {
+        synchronized (subscribers) {
+            subscribers.values().remove(subscriber);
+            synchronized (this) {
+                if (running && subscribers.isEmpty()) stop();
+            }
+        }
+    }
+
+    /**
+     * Stop routing a server's messages to its subscriber and hold them for the next subscribe,
+     * e.g. from a handshake to the session that takes over. Polling goes on.
+     *
+     * @param serverUuid The server
+     * @param subscriber Its current subscriber, nothing is removed if it was replaced meanwhile
+     * @param rest Messages the subscriber already got but leaves to the next one, in order
+     */
+    public void hold(String serverUuid, Subscriber subscriber, List<RelayMessageDTO> rest) {
+        synchronized (subscribers) {
+            subscribers.remove(serverUuid, subscriber);
+            Deque<RelayMessageDTO> waiting = heldFor(serverUuid);
+            for (int i = rest.size() - 1; i >= 0; i--) {
+                waiting.addFirst(rest.get(i)); // Ahead of anything held meanwhile
+            }
+            heldCount += rest.size();
+            trimHeld(serverUuid, waiting);
+        }
+    }
+
+    /**
+     * Drop what's held for a server, its session ended. The loop stops if nobody is subscribed
+     * @param serverUuid The server
+     */
+    public void forget(String serverUuid) {
+        synchronized (subscribers) {
+            removeHeld(serverUuid);
+            synchronized (this) {
+                if (running && subscribers.isEmpty()) stop();
+            }
+        }
+    }
+
+    /**
+     * One immediate poll next to the loop, e.g. to check the relay is back after an outage
+     * @return Completes once the messages were handed to their subscribers, fails like {@link AsyncRelayClient#poll(int)}
+     */
+    public CompletableFuture<Void> pollNow() {
+        return relayClient.poll(0).thenAccept(result -> dispatch(result.messages()));
+    }
+
+    /**
+     * The user is around, adaptive polling goes back to its fast rate
+     */
+    public synchronized void onActivity() {
+        if (adaptive != null) adaptive.onActivity();
+    }
+
+    /**
+     * Drop every subscriber and stop the loop
+     */
+    public void shutdown() {
+        synchronized (subscribers) {
+            subscribers.clear();
+            held.clear();
+            heldCount = 0;
+            synchronized (this) {
+                if (running) stop();
+            }
+        }
+    }
+
+    private void start() {
+        running = true;
+        parseErrorDelayMillis = 0;
+        int loop = ++generation;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = Executors.defaultThreadFactory().newThread(r);
+            t.setDaemon(true); // Allow JVM exit
+            t.setName("Relay-Poller-Thread");
+            return t;
+        });
+        armLongPoll(loop);
+        System.out.println("Relay polling started.");
+    }
+
+    private void stop() {
+        running = false;
+        generation++;
+        if (adaptive != null) {
+            adaptive.stop();
+            adaptive = null;
+        }
+        // A pending long-poll may be held open by the relay for many seconds, abort it
+        if (inFlight != null) {
+            inFlight.cancel(true);
+            inFlight = null;
+        }
+        if (timer != null) {
+            timer.shutdownNow(); // Only timers run here, nothing to wait for
+            timer = null;
+        }
+        System.out.println("Relay polling stopped.");
+    }
+
+    private synchronized boolean isCurrent(int loop) {
+        return running && loop == generation;
+    }
+
+    /**
+     * Long-poll, the request stays open on the relay until messages arrive or the wait expires,
+     * then we re-arm right away. No thread is held while it's open.
+     */
+    private void armLongPoll(int loop) {
+        CompletableFuture<AsyncRelayClient.PollResult> poll;
+        synchronized (this) {
+            if (!isCurrent(loop)) return;
+            poll = relayClient.poll(longPollWaitSeconds);
+            inFlight = poll;
+        }
+        poll.whenComplete((result, error) -> {
+            if (!isCurrent(loop)) return; // Stopped meanwhile
+            if (error != null) {
+                if (handlePollError(error, loop)) retryLongPoll(loop);
+                return;
+            }
+            parsed();
+            dispatch(result.messages());
+            if (result.longPoll()) {
+                armLongPoll(loop);
+            } else {
+                // Relay answered without holding the request, use the adaptive schedule
+                System.out.println("Relay does not support long-poll, falling back to adaptive polling.");
+                startAdaptivePolling(loop);
+            }
+        });
+    }
+
+    /**
+     * Long-poll again after a malformed answer, backing off so a relay stuck on a bad body isn't hammered
+     */
+    private synchronized void retryLongPoll(int loop) {
+        if (!isCurrent(loop)) return;
+        timer.schedule(() -> armLongPoll(loop), parseErrorDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * A poll parsed, the parse error backoff starts over
+     */
+    private synchronized void parsed() {
+        parseErrorDelayMillis = 0;
+    }
+
+    /**
+     * Fallback polling for relays without long-poll support
+     * Polls fast while messages are flowing and backs off exponentially while every room is quiet
+     */
+    private synchronized void startAdaptivePolling(int loop) {
+        if (!isCurrent(loop)) return;
+        adaptive = new AdaptivePollScheduler(timer, () -> {
+            CompletableFuture<AsyncRelayClient.PollResult> poll;
+            synchronized (this) {
+                if (!isCurrent(loop)) return CompletableFuture.completedFuture(false);
+                poll = relayClient.poll(0);
+                inFlight = poll;
+            }
+            return poll.handle((result, error) -> {
+                if (error != null) {
+                    // The scheduler re-arms with its backoff if polling goes on, false counts as a quiet poll
+                    if (isCurrent(loop)) handlePollError(error, loop);
+                    return false;
+                }
+                parsed();
+                return isCurrent(loop) && dispatch(result.messages());
+            });
+        }, minDelayMillis, maxDelayMillis);
+        adaptive.start();
+    }
+
+    /**
+     * A poll failed: parse errors are reported once per streak and polling goes on after a growing delay,
+     * anything else is a connection problem
+     *
+     * @param error The failure from the poll future
+     * @return True if polling goes on
+     */
+    private boolean handlePollError(Throwable error, int loop) {
+        Throwable cause = AsyncRelayClient.unwrap(error);
+        if (cause instanceof CancellationException) {
+            return false; // Loop is being stopped, not a connection error
+        }
+        if (cause instanceof IllegalArgumentException) { // Malformed JSON
+            boolean first;
+            synchronized (this) {
+                first = parseErrorDelayMillis == 0;
+                parseErrorDelayMillis = first ? minDelayMillis : Math.min(parseErrorDelayMillis * 2, maxDelayMillis);
+            }
+            if (!first) return true; // Subscribers were told already
+            List<Subscriber> current;
+            synchronized (subscribers) {
+                current = new ArrayList<>(subscribers.values());
+            }
+            current.forEach(subscriber -> subscriber.onPollError(cause));
+            return true;
+        }
+        List<Subscriber> ended;
+        synchronized (subscribers) {
+            synchronized (this) {
+                if (!isCurrent(loop)) return false;
+                stop();
+            }
+            ended = new ArrayList<>(subscribers.values());
+            subscribers.clear();
+        }
+        System.err.println("Error polling relay service: " + cause.getMessage());
+        ended.forEach(subscriber -> subscriber.onPollError(cause)); // Each one reconnects, or disconnects
+        return false;
+    }
+
+    /**
+     * Route polled messages to the subscriber of their sender, held if there's none right now
+     * Runs under the routing lock, so a concurrent subscribe or hold can't reorder a server's messages
+     *
+     * @param messages Decoded messages from the relay
+     * @return True if there was at least one message
+     */
+    private boolean dispatch(List<RelayMessageDTO> messages) {
+        if (messages.isEmpty()) return false;
+        Map<String, List<RelayMessageDTO>> bySender = new LinkedHashMap<>();
+        for (RelayMessageDTO message : messages) {
+            bySender.computeIfAbsent(message.getSender(), sender -> new ArrayList<>()).add(message);
+        }
+        synchronized (subscribers) {
+            bySender.forEach((sender, batch) -> {
+                if (sender == null) {
+                    System.out.println("Dropped " + batch.size() + " relay messages without sender.");
+                    return;
+                }
+                Subscriber subscriber = subscribers.get(sender);
+                if (subscriber != null) {
+                    subscriber.onMessages(batch);
+                    return;
+                }
+                Deque<RelayMessageDTO> waiting = heldFor(sender);
+                waiting.addAll(batch);
+                heldCount += batch.size();
+                trimHeld(sender, waiting);
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Number of messages held for servers nobody is subscribed to
+     */
+    int heldCount() {
+        synchronized (subscribers) {
+            return heldCount;
+        }
+    }
+
+    /**
+     * The held messages of a server, a new entry if there's none. Expired entries are dropped first,
+     * and the longest held server if there are too many. Under the routing lock
+     */
+    private Deque<RelayMessageDTO> heldFor(String serverUuid) {
+        expireHeld();
+        Held entry = held.get(serverUuid);
+        if (entry == null) {
+            if (held.size() >= MAX_HELD_SERVERS) {
+                String oldest = held.keySet().iterator().next();
+                int dropped = removeHeld(oldest).size();
+                System.out.println("Dropped " + dropped + " held relay messages from " + oldest + ", too many servers held.");
+            }
+            entry = new Held();
+            held.put(serverUuid, entry);
+        }
+        return entry.messages;
+    }
+
+    /**
+     * @return The messages held for the server, null if there were none. Under the routing lock
+     */
+    private Deque<RelayMessageDTO> removeHeld(String serverUuid) {
+        Held entry = held.remove(serverUuid);
+        if (entry == null) return null;
+        heldCount -= entry.messages.size();
+        return entry.messages;
+    }
+
+    /**
+     * Drop the servers held longer than the TTL, nobody came for them. Under the routing lock
+     */
+    private void expireHeld() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Held>> entries = held.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Held> entry = entries.next();
+            if (now - entry.getValue().sinceMillis < heldTtlMillis) break; // Longest held first, the rest are newer
+            entries.remove();
+            heldCount -= entry.getValue().messages.size();
+            System.out.println("Dropped " + entry.getValue().messages.size() + " held relay messages from "
+                    + entry.getKey() + ", nobody subscribed in time.");
+        }
+    }
+
+    /**
+     * Enforce the per server and total caps after adding to a server's held messages. Under the routing lock
+     */
+    private void trimHeld(String serverUuid, Deque<RelayMessageDTO> waiting) {
+        int dropped = 0;
+        while (waiting.size() > MAX_HELD_PER_SERVER) {
+            waiting.removeFirst();
+            heldCount--;
+            dropped++;
+        }
+        if (dropped > 0) {
+            System.out.println("Dropped " + dropped + " held relay messages from " + serverUuid + ", nobody subscribed.");
+        }
+        while (heldCount > MAX_HELD_MESSAGES) {
+            Map.Entry<String, Held> oldest = held.entrySet().iterator().next();
+            Deque<RelayMessageDTO> messages = oldest.getValue().messages;
+            int excess = Math.min(heldCount - MAX_HELD_MESSAGES, messages.size());
+            for (int i = 0; i < excess; i++) {
+                messages.removeFirst();
+            }
+            heldCount -= excess;
+            if (messages.isEmpty()) held.remove(oldest.getKey());
+            System.out.println("Dropped " + excess + " held relay messages from " + oldest.getKey() + ", too many held.");
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.unilabs.chatroom_clientfx.model.direct;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single selector thread that drives every direct session
+ * Tasks and timers submitted from other threads are executed on the loop thread
+ */
+public class DirectIoLoop implements AutoCloseable {
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Only touched by the loop thread
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>(Comparator.comparingLong(t -> t.deadlineNanos));
+    private volatile boolean running = true;
+
+    /**
+     * Opens the selector and starts the loop thread
+     * @param threadName Name for the I/O thread
+     * @throws IOException If the selector cannot be opened
+     */
+    public DirectIoLoop(String threadName) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, threadName);
+        this.thread.setDaemon(true); // Allow JVM to exit if only this thread is running
+        this.thread.start();
+    }
+
+    /**
+     * Run a task on the loop thread
+     * @param task The task, must not block
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Run a task on the loop thread after a delay
+     * @param task The task, must not block
+     * @param delayMillis Delay in milliseconds
+     * @return Handle that can be used to cancel the timer
+     */
+    public Timer schedule(Runnable task, long delayMillis) {
+        Timer timer = new Timer(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+        execute(() -> timers.add(timer));
+        return timer;
+    }
+
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Register a channel with the selector, must be called on the loop thread
+     */
+    SelectionKey register(SelectableChannel channel, int ops, DirectSession session) throws IOException {
+        return channel.register(selector, ops, session);
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select(nextTimerTimeoutMillis());
+                if (!running) break;
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.attachment() instanceof DirectSession session) {
+                        session.onReady(key);
+                    }
+                }
+                runTasks();
+                runTimers();
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.err.println("Direct I/O loop failed: " + e.getMessage());
+        } finally {
+            running = false;
+            closeAllSessions();
+            System.out.println("Direct I/O loop exiting.");
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println("Unexpected error in direct I/O task: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void runTimers() {
+        long now = System.nanoTime();
+        Timer timer;
+        while ((timer = timers.peek()) != null && timer.deadlineNanos - now <= 0) {
+            timers.poll();
+            if (!timer.cancelled) {
+                try {
+                    timer.task.run();
+                } catch (Exception e) {
+                    System.err.println("Unexpected error in direct I/O timer: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private long nextTimerTimeoutMillis() {
+        // Tasks don't need a check here, execute() wakes up the selector (even before select is entered)
+        Timer next = timers.peek();
+        if (next == null) return 0; // 0 = block until woken up
+        long millis = TimeUnit.NANOSECONDS.toMillis(next.deadlineNanos - System.nanoTime());
+        return Math.max(1, millis);
+    }
+
+    private void closeAllSessions() {
+        // Run what's left (close requests etc.) then close whatever is still registered
+        runTasks();
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof DirectSession session) {
+                    session.closeInternal(new IOException("I/O loop stopped"));
+                }
+            }
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) { /* ignore */ }
+    }
+
+    /**
+     * Stop the loop, every session still open gets closed
+     */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        if (!inLoop()) {
+            try {
+                thread.join(500); // Wait briefly for it to finish
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Handle to a timer scheduled on the loop
+     */
+    public static final class Timer {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private volatile boolean cancelled;
+
+        private Timer(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,543 @@
+package com.unilabs.chatroom_clientfx.model.direct;
+
+import jdk.net.ExtendedSocketOptions;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketOption;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * One direct (TCP) connection to a chat server, driven by a {@link DirectIoLoop}
+ * Non-blocking: reads go through a reused buffer and an incremental line decoder,
+ * writes are queued and flushed by the loop thread. A flush writes everything queued so far with gathering writes,
+ * so a burst of sends costs a few syscalls instead of one each. The queue reports back-pressure:
+ * past a high watermark {@link #isBacklogged()} turns true until it drained below the low watermark,
+ * at the limit sends are refused and heartbeat frames skipped.
+ *
+ * Protocol (text): client sends its UUID and nickname as two lines, server answers "OK",
+ * after that every line is a chat message.
+ *
+ * Binary framing (optional): a server that supports it answers "OK FRAMING=binary/1". If we want it we reply
+ * "SWITCH binary/1" and write {@link FrameCodec} frames from then on, the server answers "SWITCHED binary/1"
+ * as its last text line and sends frames after it. Servers that answer a plain "OK" stay on text.
+ *
+ * Heartbeat (binary framing only, see {@link #startHeartbeat(long, int)}): a PING frame per interval, driven by a loop
+ * timer, the server echoes it as PONG. The echo gives the round-trip time, too many unanswered pings close the
+ * session, so a half-open connection is noticed without a thread blocking on it. Text sessions only get TCP keep-alive,
+ * see {@link #tuneKeepAlive(long, int)}.
+ */
+public class DirectSession {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_GATHER = 64; // Buffers per gathering write
+    private static final long BACKLOG_HIGH_BYTES = 256 * 1024;
+    private static final long BACKLOG_LOW_BYTES = 64 * 1024;
+    private static final long QUEUE_LIMIT_BYTES = 1024 * 1024;
+
+    /**
+     * Callbacks, always invoked on the I/O loop thread (must not block)
+     */
+    public interface Listener {
+        /** A line arrived from the server after the handshake */
+        void onLine(DirectSession session, String line);
+
+        /** The session closed after a successful handshake, cause is null for a local close */
+        void onClosed(DirectSession session, IOException cause);
+
+        /** A control message arrived (binary framing only) */
+        default void onControl(DirectSession session, String payload) {}
+
+        /** The send queue drained below the low watermark after being backlogged */
+        default void onWritable(DirectSession session) {}
+
+        /** The server answered a heartbeat ping, rttMillis is the round-trip time */
+        default void onHeartbeat(DirectSession session, long rttMillis) {}
+    }
+
+    private enum State { CONNECTING, HANDSHAKE, OPEN, CLOSED }
+
+    private final DirectIoLoop loop;
+    private final SocketChannel channel;
+    private final Listener listener;
+    private final long timeoutMillis;
+    private final boolean offerBinary; // Switch to binary framing if the server offers it
+    private final CompletableFuture<Void> handshake = new CompletableFuture<>();
+
+    /**
+     * A queued write
+     * @param data Encoded line or frame
+     * @param frame True for a binary frame, its sequence number is stamped by the loop thread
+     * @param done Told whether it reached the socket, null if nobody asks
+     */
+    private record Outgoing(ByteBuffer data, boolean frame, Consumer<Boolean> done) {}
+
+    // Outbound queue, lock-free MPSC: filled by any thread, drained in order by the loop thread (the only writer)
+    private final Queue<Outgoing> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicBoolean backlogged = new AtomicBoolean(false);
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile boolean binaryOut; // Set on the loop thread before the handshake completes
+
+    // Only touched by the loop thread
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final Utf8LineDecoder lineDecoder = new Utf8LineDecoder();
+    private final FrameCodec frameDecoder = new FrameCodec();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private long sendSeq; // Last sequence number stamped on an outgoing frame
+    private DirectIoLoop.Timer heartbeatTimer;
+    private long heartbeatIntervalMillis;
+    private int heartbeatMaxMissed;
+    private int heartbeatsMissed; // Pings sent since the last PONG
+    private boolean switchPending; // SWITCH sent, still reading text until the server's SWITCHED
+    private boolean binaryIn;
+    private long lastChatSeq; // Highest numbered CHAT frame delivered
+    private SelectionKey key;
+    private State state = State.CONNECTING;
+    private DirectIoLoop.Timer handshakeTimer;
+
+    private DirectSession(DirectIoLoop loop, SocketChannel channel, long timeoutMillis, boolean offerBinary, Listener listener) {
+        this.loop = loop;
+        this.channel = channel;
+        this.timeoutMillis = timeoutMillis;
+        this.offerBinary = offerBinary;
+        this.listener = listener;
+    }
+
+    /**
+     * Start connecting, the returned session completes {@link #handshakeFuture()} once the server says "OK"
+     *
+     * @param loop The I/O loop driving this session
+     * @param address Server address
+     * @param clientUuid Our UUID, first handshake line
+     * @param nickname User's nickname, second handshake line
+     * @param timeoutMillis Timeout for the TCP connect and again for the server's answer
+     * @param binaryFraming Switch to binary framing if the server offers it
+     * @param listener Receives lines and close notifications
+     * @return The new session
+     * @throws IOException If the channel cannot be opened
+     */
+    public static DirectSession open(DirectIoLoop loop, InetSocketAddress address, String clientUuid, String nickname,
+                                     long timeoutMillis, boolean binaryFraming, Listener listener) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true); // Last resort for text sessions, no heartbeat there
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        DirectSession session = new DirectSession(loop, channel, timeoutMillis, binaryFraming, listener);
+        // Handshake lines wait in the queue until the connection is up
+        session.enqueue(clientUuid);
+        session.enqueue(nickname);
+        loop.execute(() -> session.startConnect(address));
+        return session;
+    }
+
+    /**
+     * @return Completes when the server accepted us, fails with the reason otherwise
+     */
+    public CompletableFuture<Void> handshakeFuture() {
+        return handshake;
+    }
+
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * @return True if the session switched to binary framing (known once the handshake completed)
+     */
+    public boolean isBinaryFraming() {
+        return binaryOut;
+    }
+
+    /**
+     * @return True while more than the high watermark is waiting to be written, senders should hold back
+     *         until {@link Listener#onWritable(DirectSession)}
+     */
+    public boolean isBacklogged() {
+        return backlogged.get();
+    }
+
+    /**
+     * Queue a chat message for sending, never blocks
+     * @param line Line without terminator
+     * @param done Called on the loop thread with true once the line was written to the socket, false if the session
+     *             closed before (the server never got it). Can be null
+     * @return False if the session is closed or its queue is full (backlogged, retry after
+     *         {@link Listener#onWritable(DirectSession)}), done isn't called then
+     */
+    public boolean send(String line, Consumer<Boolean> done) {
+        if (closed.get() || queuedBytes.get() >= QUEUE_LIMIT_BYTES) return false;
+        if (binaryOut) {
+            queue(new Outgoing(FrameCodec.encode(FrameCodec.TYPE_CHAT, line), true, done));
+        } else {
+            queue(new Outgoing(StandardCharsets.UTF_8.encode(line + "\n"), false, done));
+        }
+        scheduleFlush();
+        return true;
+    }
+
+    /**
+     * Ping the server every interval, the session closes with a SocketTimeoutException after maxMissed unanswered pings
+     * Only once the handshake completed, does nothing on text sessions (the server couldn't tell a ping from chat)
+     *
+     * @param intervalMillis Time between pings, 0 or less disables the heartbeat
+     * @param maxMissed Unanswered pings tolerated
+     * @return True if the heartbeat runs
+     */
+    public boolean startHeartbeat(long intervalMillis, int maxMissed) {
+        if (intervalMillis <= 0 || closed.get() || !binaryOut) return false;
+        loop.execute(() -> {
+            if (closed.get() || heartbeatTimer != null) return;
+            heartbeatIntervalMillis = intervalMillis;
+            heartbeatMaxMissed = Math.max(1, maxMissed);
+            heartbeatTimer = loop.schedule(this::heartbeat, intervalMillis);
+        });
+        return true;
+    }
+
+    /**
+     * Make TCP keep-alive notice a dead peer about as fast as the heartbeat would, for sessions without one
+     * The default (about two hours idle) is far too slow. Only where the platform supports the options (Linux, macOS,
+     * recent Windows), elsewhere the default stays.
+     *
+     * @param intervalMillis Idle time before the first probe and between probes, rounded up to seconds
+     * @param maxMissed Unanswered probes before the connection is dropped
+     * @return True if all three options were set
+     */
+    public boolean tuneKeepAlive(long intervalMillis, int maxMissed) {
+        int seconds = (int) Math.max(1, (intervalMillis + 999) / 1000);
+        try {
+            Set<SocketOption<?>> supported = channel.supportedOptions();
+            if (!supported.contains(ExtendedSocketOptions.TCP_KEEPIDLE)
+                    || !supported.contains(ExtendedSocketOptions.TCP_KEEPINTERVAL)
+                    || !supported.contains(ExtendedSocketOptions.TCP_KEEPCOUNT)) {
+                return false;
+            }
+            channel.setOption(ExtendedSocketOptions.TCP_KEEPIDLE, seconds);
+            channel.setOption(ExtendedSocketOptions.TCP_KEEPINTERVAL, seconds);
+            channel.setOption(ExtendedSocketOptions.TCP_KEEPCOUNT, Math.max(1, maxMissed));
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            System.err.println("Could not tune TCP keep-alive: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    /**
+     * Close the session from any thread
+     */
+    public void close() {
+        if (closed.get()) return;
+        if (loop.inLoop()) {
+            closeInternal(null);
+        } else {
+            loop.execute(() -> closeInternal(null));
+        }
+    }
+
+    // --- Loop thread only ---
+
+    private void enqueue(String line) {
+        queue(new Outgoing(StandardCharsets.UTF_8.encode(line + "\n"), false, null));
+    }
+
+    private void enqueueFrame(byte type, String payload) {
+        queue(new Outgoing(FrameCodec.encode(type, payload), true, null));
+    }
+
+    private void queue(Outgoing write) {
+        outbound.add(write);
+        if (queuedBytes.addAndGet(write.data().limit()) > BACKLOG_HIGH_BYTES) {
+            backlogged.set(true);
+        }
+    }
+
+    private void startConnect(InetSocketAddress address) {
+        try {
+            handshakeTimer = loop.schedule(() -> closeInternal(new SocketTimeoutException("Direct connection timed out")), timeoutMillis);
+            if (channel.connect(address)) {
+                key = loop.register(channel, SelectionKey.OP_READ, this);
+                onConnected();
+            } else {
+                key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (UnresolvedAddressException e) {
+            closeInternal(new ConnectException("Unresolved address: " + address.getHostString()));
+        } catch (IOException e) {
+            closeInternal(e);
+        }
+    }
+
+    private void onConnected() {
+        state = State.HANDSHAKE;
+        handshakeTimer.cancel();
+        handshakeTimer = loop.schedule(() -> closeInternal(new SocketTimeoutException("No handshake answer from server")), timeoutMillis);
+        key.interestOps(SelectionKey.OP_READ);
+        flushScheduled.set(true);
+        flush();
+    }
+
+    void onReady(SelectionKey readyKey) {
+        try {
+            if (!readyKey.isValid()) return;
+            if (readyKey.isConnectable()) {
+                if (channel.finishConnect()) {
+                    onConnected();
+                }
+                return;
+            }
+            if (readyKey.isReadable()) {
+                read();
+            }
+            if (readyKey.isValid() && readyKey.isWritable()) {
+                flush();
+            }
+        } catch (IOException e) {
+            closeInternal(e);
+        }
+    }
+
+    private void read() throws IOException {
+        int n;
+        while ((n = channel.read(readBuffer)) > 0) {
+            readBuffer.flip();
+            decode();
+            readBuffer.compact();
+            if (closed.get()) return;
+        }
+        if (n < 0) {
+            closeInternal(new IOException("Connection closed by server"));
+        }
+    }
+
+    private void decode() throws ProtocolException {
+        while (readBuffer.hasRemaining() && !closed.get()) {
+            if (binaryIn) {
+                frameDecoder.decode(readBuffer, this::onFrame);
+                return;
+            }
+            if (state == State.OPEN && !switchPending) {
+                lineDecoder.decode(readBuffer, this::onLine);
+                return;
+            }
+            // Until the framing is settled, one line at a time: the bytes after "OK" / "SWITCHED" may be frames
+            int end = indexOf(readBuffer, (byte) '\n');
+            if (end < 0) {
+                lineDecoder.decode(readBuffer, this::onLine); // Start of a line, the rest comes with the next read
+                return;
+            }
+            int limit = readBuffer.limit();
+            readBuffer.limit(end + 1);
+            lineDecoder.decode(readBuffer, this::onLine);
+            readBuffer.limit(limit);
+        }
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte b) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == b) return i;
+        }
+        return -1;
+    }
+
+    private void onLine(String line) {
+        switch (state) {
+            case HANDSHAKE -> {
+                handshakeTimer.cancel();
+                if ("OK".equals(line) || line.startsWith("OK ")) {
+                    state = State.OPEN;
+                    if (offerBinary && offersBinaryFraming(line)) {
+                        // Last text line we write, everything queued after it is framed
+                        enqueue("SWITCH " + FrameCodec.VERSION);
+                        binaryOut = true;
+                        switchPending = true;
+                        scheduleFlush();
+                    }
+                    handshake.complete(null);
+                } else {
+                    closeInternal(new ProtocolException(line.isEmpty() ? "No response" : line));
+                }
+            }
+            case OPEN -> {
+                if (switchPending && ("SWITCHED " + FrameCodec.VERSION).equals(line)) {
+                    switchPending = false;
+                    binaryIn = true; // Everything after this line is framed
+                    return;
+                }
+                listener.onLine(this, line);
+            }
+            default -> { /* Closed or still connecting, drop */ }
+        }
+    }
+
+    /**
+     * @param okLine The server's "OK ..." answer
+     * @return True if it lists binary/1 in a FRAMING= token
+     */
+    private static boolean offersBinaryFraming(String okLine) {
+        for (String token : okLine.substring(2).trim().split("\\s+")) {
+            if (!token.regionMatches(true, 0, "FRAMING=", 0, 8)) continue;
+            for (String framing : token.substring(8).split(",")) {
+                if (FrameCodec.VERSION.equalsIgnoreCase(framing)) return true;
+            }
+        }
+        return false;
+    }
+
+    private void onFrame(FrameCodec.Frame frame) {
+        if (state != State.OPEN) return;
+        switch (frame.type()) {
+            case FrameCodec.TYPE_CHAT -> {
+                // Only numbered chat is deduplicated, control and heartbeat frames may be unnumbered or echoed
+                if (frame.seq() > 0) {
+                    if (frame.seq() <= lastChatSeq) return; // Duplicate, already delivered
+                    lastChatSeq = frame.seq();
+                }
+                listener.onLine(this, frame.payload());
+            }
+            case FrameCodec.TYPE_CONTROL -> listener.onControl(this, frame.payload());
+            case FrameCodec.TYPE_PING -> {
+                if (queuedBytes.get() >= QUEUE_LIMIT_BYTES) return; // Stuck anyway, the answer wouldn't get through
+                enqueueFrame(FrameCodec.TYPE_PONG, frame.payload()); // Server checks on us too
+                scheduleFlush();
+            }
+            case FrameCodec.TYPE_PONG -> onPong(frame.payload());
+            default -> System.err.println("Ignoring direct frame of unknown type " + frame.type());
+        }
+    }
+
+    private void heartbeat() {
+        if (closed.get()) return;
+        if (heartbeatsMissed >= heartbeatMaxMissed) {
+            closeInternal(new SocketTimeoutException("No heartbeat answer after " + heartbeatsMissed + " pings"));
+            return;
+        }
+        heartbeatsMissed++;
+        if (queuedBytes.get() < QUEUE_LIMIT_BYTES) { // Counted as missed anyway, a full queue isn't moving
+            enqueueFrame(FrameCodec.TYPE_PING, Long.toString(System.nanoTime()));
+            scheduleFlush();
+        }
+        heartbeatTimer = loop.schedule(this::heartbeat, heartbeatIntervalMillis);
+    }
+
+    private void onPong(String payload) {
+        long sentNanos;
+        try {
+            sentNanos = Long.parseLong(payload);
+        } catch (NumberFormatException e) {
+            return; // Not one of ours
+        }
+        heartbeatsMissed = 0;
+        listener.onHeartbeat(this, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sentNanos));
+    }
+
+    private void flush() {
+        if (closed.get()) {
+            flushScheduled.set(false);
+            dropQueued(); // Sent while we were closing
+            return;
+        }
+        if (state == State.CONNECTING) return; // onConnected flushes the queue
+        try {
+            while (true) {
+                // Everything queued so far (up to MAX_GATHER buffers) in one write
+                int count = 0;
+                for (Outgoing write : outbound) {
+                    ByteBuffer data = write.data();
+                    // Sequence numbers follow the write order, no lock needed between senders
+                    if (write.frame() && FrameCodec.seq(data) == 0) FrameCodec.stampSeq(data, ++sendSeq);
+                    gather[count++] = data;
+                    if (count == MAX_GATHER) break;
+                }
+                if (count == 0) break;
+                channel.write(gather, 0, count);
+                int written = 0;
+                while (written < count && !gather[written].hasRemaining()) {
+                    queuedBytes.addAndGet(-gather[written].limit());
+                    Outgoing write = outbound.poll();
+                    if (write.done() != null) write.done().accept(true);
+                    written++;
+                }
+                Arrays.fill(gather, 0, count, null);
+                if (written < count) {
+                    // Socket buffer is full, wait for OP_WRITE
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    checkWritable();
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            checkWritable();
+            flushScheduled.set(false);
+            // A sender may have queued something after our last peek but seen flushScheduled == true
+            if (!outbound.isEmpty() && flushScheduled.compareAndSet(false, true)) {
+                flush();
+            }
+        } catch (IOException e) {
+            closeInternal(e);
+        }
+    }
+
+    private void dropQueued() {
+        Outgoing dropped;
+        while ((dropped = outbound.poll()) != null) {
+            queuedBytes.addAndGet(-dropped.data().limit());
+            if (dropped.done() != null) dropped.done().accept(false);
+        }
+    }
+
+    private void checkWritable() {
+        if (queuedBytes.get() < BACKLOG_LOW_BYTES && backlogged.compareAndSet(true, false)) {
+            listener.onWritable(this);
+        }
+    }
+
+    void closeInternal(IOException cause) {
+        if (!closed.compareAndSet(false, true)) return;
+        boolean wasOpen = state == State.OPEN;
+        state = State.CLOSED;
+        if (handshakeTimer != null) handshakeTimer.cancel();
+        if (heartbeatTimer != null) heartbeatTimer.cancel();
+        if (key != null) key.cancel();
+        try { channel.close(); } catch (IOException e) { /* ignore */ }
+        dropQueued();
+        flushScheduled.set(false); // A send that raced with the close schedules a flush, which drops it
+        lineDecoder.reset();
+
+        if (!handshake.isDone()) {
+            handshake.completeExceptionally(cause != null ? cause : new IOException("Session closed"));
+        }
+        if (wasOpen) {
+            listener.onClosed(this, cause);
+        }
+    }
+}
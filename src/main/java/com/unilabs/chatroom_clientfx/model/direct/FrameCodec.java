@@ -0,0 +1,107 @@
+package com.unilabs.chatroom_clientfx.model.direct;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Length-prefixed binary framing for direct sessions (binary/1)
+ *
+ * Frame: [int length][byte type][long seq][long timestampMillis][UTF-8 payload], big endian,
+ * length counts everything after itself. Payloads may contain newlines, nothing is scanned for delimiters.
+ * Decoding is incremental, frames can arrive split anywhere or several per read.
+ */
+final class FrameCodec {
+
+    static final String VERSION = "binary/1";
+
+    static final byte TYPE_CHAT = 1;
+    static final byte TYPE_CONTROL = 2;
+    static final byte TYPE_PING = 3; // Payload is echoed back in a PONG
+    static final byte TYPE_PONG = 4;
+
+    private static final int HEADER_BYTES = 1 + Long.BYTES + Long.BYTES;
+    private static final int SEQ_OFFSET = Integer.BYTES + 1;
+    private static final int MAX_FRAME_BYTES = 1024 * 1024; // Anything bigger is a broken stream, not a message
+
+    /**
+     * A decoded frame
+     * @param type TYPE_CHAT, TYPE_CONTROL or unknown
+     * @param seq Sender's sequence number
+     * @param timestampMillis Sender's clock when it was sent
+     * @param payload The text
+     */
+    record Frame(byte type, long seq, long timestampMillis, String payload) {}
+
+    // Bytes of a frame that isn't complete yet, only touched by the loop thread
+    private ByteBuffer pending = ByteBuffer.allocate(8192);
+
+    /**
+     * @param type Frame type
+     * @param payload The text
+     * @return The frame, sequence number still 0 until {@link #stampSeq(ByteBuffer, long)}
+     */
+    static ByteBuffer encode(byte type, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + HEADER_BYTES + bytes.length);
+        frame.putInt(HEADER_BYTES + bytes.length)
+                .put(type)
+                .putLong(0)
+                .putLong(System.currentTimeMillis())
+                .put(bytes)
+                .flip();
+        return frame;
+    }
+
+    /**
+     * Set the sequence number of an encoded frame, done by the writer so numbers follow the write order
+     * @param frame Frame from {@link #encode(byte, String)}, not written yet
+     * @param seq Sequence number, starting at 1
+     */
+    static void stampSeq(ByteBuffer frame, long seq) {
+        frame.putLong(SEQ_OFFSET, seq);
+    }
+
+    /**
+     * @return Sequence number of an encoded frame, 0 if not stamped yet
+     */
+    static long seq(ByteBuffer frame) {
+        return frame.getLong(SEQ_OFFSET);
+    }
+
+    /**
+     * Decode what's available, every complete frame is handed to the consumer
+     * Consumes the whole input, a partial frame is kept until the rest arrives
+     *
+     * @param in Buffer in read mode
+     * @param frames Receives each complete frame
+     * @throws ProtocolException If a length is out of range
+     */
+    void decode(ByteBuffer in, Consumer<Frame> frames) throws ProtocolException {
+        if (pending.remaining() < in.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + in.remaining()));
+            pending.flip();
+            pending = grown.put(pending);
+        }
+        pending.put(in).flip();
+        try {
+            while (pending.remaining() >= Integer.BYTES) {
+                int length = pending.getInt(pending.position());
+                if (length < HEADER_BYTES || length > MAX_FRAME_BYTES) {
+                    throw new ProtocolException("Bad frame length " + length);
+                }
+                if (pending.remaining() < Integer.BYTES + length) return; // Rest still in flight
+                pending.getInt();
+                byte type = pending.get();
+                long seq = pending.getLong();
+                long timestamp = pending.getLong();
+                byte[] payload = new byte[length - HEADER_BYTES];
+                pending.get(payload);
+                frames.accept(new Frame(type, seq, timestamp, new String(payload, StandardCharsets.UTF_8)));
+            }
+        } finally {
+            pending.compact();
+        }
+    }
+}
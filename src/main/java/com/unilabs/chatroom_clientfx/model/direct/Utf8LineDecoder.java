@@ -0,0 +1,60 @@
+package com.unilabs.chatroom_clientfx.model.direct;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Incremental UTF-8 line decoder, bytes can arrive split anywhere (even inside a multibyte character)
+ * Buffers are reused between reads, only the finished line becomes a String
+ */
+final class Utf8LineDecoder {
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CharBuffer chars = CharBuffer.allocate(4096);
+    private final StringBuilder line = new StringBuilder(256);
+
+    /**
+     * Decode what's available, every complete line is handed to the consumer (without the line terminator)
+     * Incomplete trailing bytes are left in the buffer, the caller should compact it before the next read
+     *
+     * @param in Buffer in read mode
+     * @param lines Receives each complete line
+     */
+    void decode(ByteBuffer in, Consumer<String> lines) {
+        while (true) {
+            CoderResult result = decoder.decode(in, chars, false);
+            chars.flip();
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n') {
+                    int len = line.length();
+                    if (len > 0 && line.charAt(len - 1) == '\r') {
+                        line.setLength(len - 1);
+                    }
+                    lines.accept(line.toString());
+                    line.setLength(0);
+                } else {
+                    line.append(c);
+                }
+            }
+            chars.clear();
+            if (result.isUnderflow()) {
+                return; // Need more bytes
+            }
+            // Overflow, our char buffer was full, go around again
+        }
+    }
+
+    void reset() {
+        decoder.reset();
+        chars.clear();
+        line.setLength(0);
+    }
+}
@@ -1,7 +1,10 @@
 package com.unilabs.chatroom_clientfx.model.dto;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.List;
+
 // Using a standard DTO class for relay messages
 
 /**
@@ -12,12 +15,18 @@ public class RelayMessageDTO {
     private String recipient;
     private String message;
     private String type; // e.g., "chat", "control", "system"
+    private long seq; // Assigned by the relay per recipient inbox, -1 if none (outgoing or older relay)
 
     public RelayMessageDTO(String sender, String recipient, String message, String type) {
+        this(sender, recipient, message, type, -1L);
+    }
+
+    public RelayMessageDTO(String sender, String recipient, String message, String type, long seq) {
         this.sender = sender;
         this.recipient = recipient;
         this.message = message;
         this.type = type;
+        this.seq = seq;
     }
 
     // Getters (Setters might not be needed if created once)
@@ -25,6 +34,8 @@ public class RelayMessageDTO {
     public String getRecipient() { return recipient; }
     public String getMessage() { return message; }
     public String getType() { return type; }
+    public long getSeq() { return seq; }
+    public boolean hasSeq() { return seq >= 0; }
 
     // Method to convert DTO to JSON for sending
 
@@ -34,11 +45,33 @@ public class RelayMessageDTO {
      * @return the JSON data
      */
     public String toJsonString() {
+        return toJson().toString();
+    }
+
+    /**
+     * @return The JSON object for this message
+     */
+    public JSONObject toJson() {
         JSONObject payload = new JSONObject();
         payload.put("sender", sender);
         payload.put("recipient", recipient);
         payload.put("message", message);
         payload.put("type", type);
+        if (hasSeq()) payload.put("seq", seq);
+        return payload;
+    }
+
+    /**
+     * Convert several messages to one JSON array payload (batched send)
+     *
+     * @param messages Messages in sending order
+     * @return the JSON data
+     */
+    public static String toJsonArrayString(List<RelayMessageDTO> messages) {
+        JSONArray payload = new JSONArray();
+        for (RelayMessageDTO message : messages) {
+            payload.put(message.toJson());
+        }
         return payload.toString();
     }
 
@@ -55,7 +88,8 @@ public class RelayMessageDTO {
                     json.optString("sender", null),
                     json.optString("recipient", null), // Recipient might not always be present in received msg
                     json.optString("message", ""),
-                    json.optString("type", "chat") // Default type if missing
+                    json.optString("type", "chat"), // Default type if missing
+                    json.optLong("seq", -1L) // Older relays don't number messages
             );
         } catch (Exception e) {
             System.err.println("Error parsing RelayMessageDTO from JSON: " + e.getMessage());
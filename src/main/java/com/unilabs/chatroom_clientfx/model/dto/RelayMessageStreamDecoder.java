@@ -0,0 +1,211 @@
+package com.unilabs.chatroom_clientfx.model.dto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Streaming decoder for relay poll responses (a JSON array of message objects)
+ * Reads the body as it arrives and builds each {@link RelayMessageDTO} straight from the tokens,
+ * without materializing the body String, a JSONArray or JSONObjects first.
+ * Unknown fields and nested values are skipped.
+ */
+public class RelayMessageStreamDecoder {
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder token = new StringBuilder(256);
+    private int position;
+    private int limit;
+    private long offset; // Chars consumed before the current buffer, for error messages
+
+    private RelayMessageStreamDecoder(InputStream body) {
+        this.reader = new InputStreamReader(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decode a relay response body, each message is handed over as soon as its object is complete
+     * An empty body is treated as an empty array.
+     *
+     * @param body Response body stream (not closed here)
+     * @param messages Receives every decoded message
+     * @return Number of messages decoded
+     * @throws IOException If reading the body fails
+     * @throws IllegalArgumentException If the body isn't the expected JSON
+     */
+    public static int decode(InputStream body, Consumer<RelayMessageDTO> messages) throws IOException {
+        return new RelayMessageStreamDecoder(body).decodeArray(messages);
+    }
+
+    private int decodeArray(Consumer<RelayMessageDTO> messages) throws IOException {
+        int c = nextNonWhitespace();
+        if (c == -1) return 0; // Empty body
+        expect(c, '[');
+
+        int count = 0;
+        c = nextNonWhitespace();
+        if (c == ']') return 0;
+        while (true) {
+            expect(c, '{');
+            messages.accept(decodeMessage());
+            count++;
+            c = nextNonWhitespace();
+            if (c == ']') return count;
+            expect(c, ',');
+            c = nextNonWhitespace();
+        }
+    }
+
+    /**
+     * Decode one object, the opening brace was already consumed
+     */
+    private RelayMessageDTO decodeMessage() throws IOException {
+        String sender = null;
+        String recipient = null;
+        String message = "";
+        String type = "chat"; // Default type if missing, same as RelayMessageDTO.fromJson
+        long seq = -1L;
+
+        int c = nextNonWhitespace();
+        if (c == '}') return new RelayMessageDTO(sender, recipient, message, type, seq);
+        while (true) {
+            expect(c, '"');
+            String key = readString();
+            expect(nextNonWhitespace(), ':');
+            switch (key) {
+                case "sender" -> sender = readScalar(sender);
+                case "recipient" -> recipient = readScalar(recipient);
+                case "message" -> message = readScalar(message);
+                case "type" -> type = readScalar(type);
+                case "seq" -> seq = parseSeq(readScalar(null));
+                default -> skipValue(nextNonWhitespace());
+            }
+            c = nextNonWhitespace();
+            if (c == '}') return new RelayMessageDTO(sender, recipient, message, type, seq);
+            expect(c, ',');
+            c = nextNonWhitespace();
+        }
+    }
+
+    /**
+     * Read a value as a String, like JSONObject.optString: strings as-is, numbers/booleans as their text,
+     * null gives the default. Objects and arrays are skipped and give the default too.
+     */
+    private String readScalar(String defaultValue) throws IOException {
+        int c = nextNonWhitespace();
+        if (c == '"') return readString();
+        if (c == '{' || c == '[') {
+            skipValue(c);
+            return defaultValue;
+        }
+        String literal = readLiteral(c);
+        return "null".equals(literal) ? defaultValue : literal;
+    }
+
+    /**
+     * Sequence numbers may come as a number or a numeric string, anything else means "not numbered" like optLong
+     */
+    private static long parseSeq(String value) {
+        if (value == null) return -1L;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    private String readString() throws IOException {
+        token.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) throw error("Unterminated string");
+            if (c == '"') return token.toString();
+            if (c != '\\') {
+                token.append((char) c);
+                continue;
+            }
+            int escaped = read();
+            switch (escaped) {
+                case '"', '\\', '/' -> token.append((char) escaped);
+                case 'b' -> token.append('\b');
+                case 'f' -> token.append('\f');
+                case 'n' -> token.append('\n');
+                case 'r' -> token.append('\r');
+                case 't' -> token.append('\t');
+                case 'u' -> {
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(read(), 16);
+                        if (digit < 0) throw error("Bad unicode escape");
+                        code = (code << 4) | digit;
+                    }
+                    token.append((char) code);
+                }
+                default -> throw error("Bad escape");
+            }
+        }
+    }
+
+    private String readLiteral(int first) throws IOException {
+        token.setLength(0);
+        int c = first;
+        while (c != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+            token.append((char) c);
+            c = read();
+        }
+        if (c != -1) position--; // Leave the delimiter for the caller
+        if (token.isEmpty()) throw error("Expected a value");
+        return token.toString();
+    }
+
+    private void skipValue(int first) throws IOException {
+        switch (first) {
+            case '"' -> readString();
+            case '{', '[' -> {
+                int depth = 1;
+                while (depth > 0) {
+                    int c = read();
+                    if (c == -1) throw error("Unterminated value");
+                    if (c == '"') readString();
+                    else if (c == '{' || c == '[') depth++;
+                    else if (c == '}' || c == ']') depth--;
+                }
+            }
+            default -> readLiteral(first);
+        }
+    }
+
+    private void expect(int actual, char expected) {
+        if (actual != expected) {
+            throw error("Expected '" + expected + "' but found " + (actual == -1 ? "end of body" : "'" + (char) actual + "'"));
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && Character.isWhitespace(c));
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            offset += limit;
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Malformed relay JSON at char " + (offset + position) + ": " + message);
+    }
+}
@@ -0,0 +1,50 @@
+package com.unilabs.chatroom_clientfx.model.journal;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sidecar lock files, so two clients sharing a data directory don't write the same files
+ * The lock file itself is never deleted, deleting it would race with another instance locking it.
+ */
+final class LockFile {
+
+    private LockFile() {}
+
+    /**
+     * @param path Lock file, created if missing
+     * @return The held lock, closing its channel releases it. Null if another process or another instance
+     *         in this JVM holds it
+     * @throws IOException If the lock file cannot be opened
+     */
+    static FileLock tryLock(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock != null) return lock;
+        } catch (OverlappingFileLockException e) {
+            // Held by this JVM, e.g. a second client opened in the same process
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        return null;
+    }
+
+    /**
+     * @param lock A lock from {@link #tryLock(Path)}, or null
+     */
+    static void release(FileLock lock) {
+        if (lock == null) return;
+        try {
+            lock.channel().close(); // Releases the lock too
+        } catch (IOException e) {
+            System.err.println("Error releasing lock file: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.unilabs.chatroom_clientfx.model.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only, segmented on-disk journal of chat messages
+ *
+ * Every message gets a global index (0, 1, 2...). Segments are files named after the index of their first message,
+ * records are [int length][UTF-8 bytes]. Appends go through a background writer thread,
+ * reads map the segment files read-only so scrollback never loads the whole history on the heap.
+ * Opening only maps the tail segment (to count its records and drop a torn last record).
+ * The directory belongs to one open journal at a time, a lock file keeps a second client from appending to it.
+ */
+public class MessageJournal implements AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int RECORD_HEADER_BYTES = Integer.BYTES;
+    private static final String LOCK_FILE = "journal.lock";
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int maxSegments;
+
+    // Guarded by "this"
+    private final NavigableMap<Long, Path> segments = new TreeMap<>(); // First index -> file
+    private FileLock lock;
+    private FileChannel tail;
+    private long tailFirstIndex;
+    private long tailSize;
+    private long nextIndex;
+    private boolean closed;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Journal-Writer-Thread");
+        t.setDaemon(true); // Allow JVM exit
+        return t;
+    });
+
+    private MessageJournal(Path directory, long segmentBytes, int maxSegments) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Open (or create) a journal
+     *
+     * @param directory Directory holding the segment files
+     * @param segmentBytes Size after which a new segment is started
+     * @param maxSegments Oldest segments beyond this count are deleted
+     * @return The opened journal
+     * @throws IOException If the directory or tail segment cannot be opened, or another journal has the directory open
+     */
+    public static MessageJournal open(Path directory, long segmentBytes, int maxSegments) throws IOException {
+        MessageJournal journal = new MessageJournal(directory, segmentBytes, Math.max(1, maxSegments));
+        try {
+            journal.load();
+        } catch (IOException e) {
+            journal.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    private synchronized void load() throws IOException {
+        Files.createDirectories(directory);
+        lock = LockFile.tryLock(directory.resolve(LOCK_FILE));
+        if (lock == null) {
+            throw new IOException("Journal directory is in use by another client: " + directory);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    long first = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(first, file);
+                } catch (NumberFormatException e) {
+                    System.err.println("Ignoring unexpected journal file: " + file);
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            openTail(0);
+            return;
+        }
+
+        Map.Entry<Long, Path> last = segments.lastEntry();
+        tailFirstIndex = last.getKey();
+        tail = FileChannel.open(last.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        // Count the tail's records, a crash may have left a torn record at the end
+        long size = tail.size();
+        long validEnd = 0;
+        long count = 0;
+        if (size > 0) {
+            MappedByteBuffer mapped = tail.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            while (validEnd + RECORD_HEADER_BYTES <= size) {
+                int length = mapped.getInt((int) validEnd);
+                if (length < 0 || validEnd + RECORD_HEADER_BYTES + length > size) break;
+                validEnd += RECORD_HEADER_BYTES + length;
+                count++;
+            }
+        }
+        if (validEnd < size) {
+            System.err.println("Journal tail has a torn record, truncating " + (size - validEnd) + " bytes.");
+            tail.truncate(validEnd);
+        }
+        tail.position(validEnd);
+        tailSize = validEnd;
+        nextIndex = tailFirstIndex + count;
+    }
+
+    /**
+     * @return Index of the oldest message still on disk
+     */
+    public synchronized long firstIndex() {
+        return segments.isEmpty() ? nextIndex : segments.firstKey();
+    }
+
+    /**
+     * @return Index the next appended message will get (number of messages ever journaled)
+     */
+    public synchronized long nextIndex() {
+        return nextIndex;
+    }
+
+    /**
+     * Queue a message for appending, never blocks
+     * @param message The message
+     */
+    public void append(String message) {
+        append(List.of(message));
+    }
+
+    /**
+     * Queue messages for appending, never blocks, order is preserved
+     * @param messages The messages, oldest first
+     */
+    public void append(List<String> messages) {
+        if (messages.isEmpty()) return;
+        List<String> batch = List.copyOf(messages);
+        try {
+            writer.submit(() -> {
+                try {
+                    appendNow(batch);
+                } catch (IOException e) {
+                    System.err.println("Error appending to message journal: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            System.err.println("Message journal closed, dropping " + batch.size() + " messages.");
+        }
+    }
+
+    private synchronized void appendNow(List<String> messages) throws IOException {
+        if (closed) return;
+        for (String message : messages) {
+            byte[] payload = message.getBytes(StandardCharsets.UTF_8);
+            long recordSize = RECORD_HEADER_BYTES + payload.length;
+            if (tailSize > 0 && tailSize + recordSize > segmentBytes) {
+                rollSegment();
+            }
+            ByteBuffer record = ByteBuffer.allocate((int) recordSize);
+            record.putInt(payload.length).put(payload).flip();
+            while (record.hasRemaining()) {
+                tail.write(record);
+            }
+            tailSize += recordSize;
+            nextIndex++;
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        tail.close();
+        openTail(nextIndex);
+        while (segments.size() > maxSegments) {
+            Map.Entry<Long, Path> oldest = segments.pollFirstEntry();
+            Files.deleteIfExists(oldest.getValue());
+        }
+    }
+
+    private void openTail(long firstIndex) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstIndex, SEGMENT_SUFFIX));
+        tail = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        tail.position(tail.size());
+        tailFirstIndex = firstIndex;
+        tailSize = tail.size();
+        segments.put(firstIndex, file);
+    }
+
+    /**
+     * Read messages through memory-mapped segments
+     *
+     * @param fromIndex Index of the first message wanted, clamped to what's still on disk
+     * @param count Maximum number of messages
+     * @return The messages, oldest first
+     * @throws IOException If a segment cannot be mapped
+     */
+    public synchronized List<String> read(long fromIndex, int count) throws IOException {
+        List<String> result = new ArrayList<>(Math.max(0, count));
+        if (closed || count <= 0) return result;
+        long index = Math.max(fromIndex, firstIndex());
+        long end = Math.min(nextIndex, index + count);
+
+        while (index < end) {
+            Map.Entry<Long, Path> segment = segments.floorEntry(index);
+            if (segment == null) break;
+            long segmentFirst = segment.getKey();
+            boolean isTail = segmentFirst == tailFirstIndex;
+
+            try (FileChannel channel = isTail ? null : FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+                FileChannel source = isTail ? tail : channel;
+                long size = isTail ? tailSize : source.size();
+                if (size == 0) break;
+                MappedByteBuffer mapped = source.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+                long current = segmentFirst;
+                while (mapped.remaining() >= RECORD_HEADER_BYTES && index < end) {
+                    int length = mapped.getInt();
+                    if (length < 0 || length > mapped.remaining()) break;
+                    if (current >= index) {
+                        byte[] payload = new byte[length];
+                        mapped.get(payload);
+                        result.add(new String(payload, StandardCharsets.UTF_8));
+                        index++;
+                    } else {
+                        mapped.position(mapped.position() + length); // Skip, not wanted yet
+                    }
+                    current++;
+                }
+                if (current == segmentFirst || (index < end && !segments.containsKey(current))) {
+                    break; // Nothing usable here or gap in the segment chain
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Flush and close, pending appends are written first
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(2, TimeUnit.SECONDS)) {
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closed = true;
+            try {
+                if (tail != null) {
+                    tail.force(false);
+                    tail.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Error closing message journal: " + e.getMessage());
+            }
+            LockFile.release(lock);
+            lock = null;
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.unilabs.chatroom_clientfx.model.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable queue of outgoing chat messages, survives outages and restarts until the server accepted them
+ *
+ * Backed by a small append-only file of records [int length][byte type][payload]:
+ * ENQ (id, attempts, recipient, text), RETRY (id) and ACK (id). Opening replays the file, what's enqueued and not acked
+ * is pending again, in order. The file is rewritten with only the pending messages on open and once enough acks piled up.
+ * State changes are applied in memory right away, the file writes go through a background writer thread:
+ * records that pile up while it's busy are written together with one force, so a burst of sends costs one fsync.
+ * One open queue per file: a sidecar "<file>.lock" keeps a second client from replaying and rewriting it.
+ */
+public class OutboundQueue implements AutoCloseable {
+
+    private static final byte ENQ = 'E';
+    private static final byte RETRY = 'R';
+    private static final byte ACK = 'A';
+    private static final int COMPACT_AFTER_ACKS = 512;
+
+    /**
+     * A queued message
+     * @param id Queue-local id, increasing in enqueue order
+     * @param recipient Server UUID it's addressed to
+     * @param text The chat text
+     * @param attempts Failed send attempts so far
+     */
+    public record Entry(long id, String recipient, String text, int attempts) {}
+
+    private final Path file; // Null when the queue only lives in memory
+
+    // Guarded by "this"
+    private final Map<Long, Entry> pending = new LinkedHashMap<>();
+    private long nextId;
+    private int acksSinceCompaction;
+    private FileChannel channel;
+    private FileLock lock;
+    private boolean closed;
+    private final List<ByteBuffer> unwritten = new ArrayList<>(); // Records waiting for the writer thread
+    private boolean forceUnwritten; // One of them must be forced to disk
+    private boolean writeScheduled;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Outbound-Queue-Writer-Thread");
+        t.setDaemon(true); // Allow JVM exit
+        return t;
+    });
+
+    private OutboundQueue(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Open (or create) the queue file and load what's still pending
+     * @param file Queue file
+     * @return The queue
+     * @throws IOException If the file cannot be opened, or another queue has it open
+     */
+    public static OutboundQueue open(Path file) throws IOException {
+        OutboundQueue queue = new OutboundQueue(file);
+        try {
+            queue.load();
+        } catch (IOException e) {
+            queue.close();
+            throw e;
+        }
+        return queue;
+    }
+
+    /**
+     * @return A queue that isn't persisted (when the file can't be used), still keeps messages across reconnects
+     */
+    public static OutboundQueue inMemory() {
+        return new OutboundQueue(null);
+    }
+
+    private synchronized void load() throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        lock = LockFile.tryLock(file.resolveSibling(file.getFileName() + ".lock"));
+        if (lock == null) {
+            throw new IOException("Outbound queue file is in use by another client: " + file);
+        }
+        if (Files.exists(file)) {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(file));
+            while (data.remaining() >= Integer.BYTES) {
+                int length = data.getInt();
+                if (length <= 0 || length > data.remaining()) break; // Torn last record, dropped by the rewrite below
+                byte[] record = new byte[length];
+                data.get(record);
+                replay(record);
+            }
+        }
+        rewrite(); // Start from a compact file
+    }
+
+    private void replay(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = in.readByte();
+        long id = in.readLong();
+        nextId = Math.max(nextId, id + 1);
+        switch (type) {
+            case ENQ -> pending.put(id, new Entry(id, in.readUTF(), in.readUTF(), in.readInt()));
+            case RETRY -> pending.computeIfPresent(id, (key, entry) -> withRetry(entry));
+            case ACK -> pending.remove(id);
+            default -> System.err.println("Skipping unknown outbound queue record type " + type);
+        }
+    }
+
+    /**
+     * Queue a message, kept in memory right away
+     * The record is written and forced asynchronously by the writer thread, so it may still be on its way to disk
+     * when the message goes to the network, a crash in that window loses it
+     * @param recipient Server UUID
+     * @param text Chat text
+     * @return The queued entry
+     */
+    public synchronized Entry enqueue(String recipient, String text) {
+        Entry entry = new Entry(nextId++, recipient, text, 0);
+        pending.put(entry.id(), entry);
+        write(ENQ, entry.id(), out -> {
+            out.writeUTF(entry.recipient());
+            out.writeUTF(entry.text());
+            out.writeInt(entry.attempts());
+        }, true);
+        return entry;
+    }
+
+    /**
+     * The server accepted these messages, they're done
+     * @param ids Entry ids
+     */
+    public synchronized void ack(Collection<Long> ids) {
+        for (Long id : ids) {
+            if (pending.remove(id) == null) continue;
+            write(ACK, id, null, false);
+            acksSinceCompaction++;
+        }
+        if (acksSinceCompaction >= COMPACT_AFTER_ACKS) {
+            acksSinceCompaction = 0;
+            submit(this::rewriteQuietly);
+        }
+    }
+
+    /**
+     * Sending these failed, they stay queued with one more attempt counted
+     * @param ids Entry ids
+     */
+    public synchronized void markRetry(Collection<Long> ids) {
+        for (Long id : ids) {
+            if (pending.computeIfPresent(id, (key, entry) -> withRetry(entry)) != null) {
+                write(RETRY, id, null, false);
+            }
+        }
+    }
+
+    /**
+     * @param recipient Server UUID
+     * @return Pending messages for that server, oldest first
+     */
+    public synchronized List<Entry> pendingFor(String recipient) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : pending.values()) {
+            if (entry.recipient().equals(recipient)) result.add(entry);
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    private static Entry withRetry(Entry entry) {
+        return new Entry(entry.id(), entry.recipient(), entry.text(), entry.attempts() + 1);
+    }
+
+    private interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void write(byte type, long id, PayloadWriter payload, boolean force) {
+        if (file == null) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0); // Length, patched below
+            out.writeByte(type);
+            out.writeLong(id);
+            if (payload != null) payload.write(out);
+        } catch (IOException e) { // e.g. text over writeUTF's 64 KiB limit
+            System.err.println("Outbound queue record not persisted, kept in memory only: " + e.getMessage());
+            return;
+        }
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        record.putInt(0, record.capacity() - Integer.BYTES);
+        unwritten.add(record);
+        forceUnwritten |= force;
+        if (!writeScheduled) {
+            writeScheduled = true;
+            submit(this::writeUnwritten);
+        }
+    }
+
+    /**
+     * Write every record queued so far in one gathering write, forced once if any of them asked for it (writer thread)
+     */
+    private void writeUnwritten() {
+        ByteBuffer[] batch;
+        boolean force;
+        FileChannel out;
+        synchronized (this) {
+            writeScheduled = false;
+            if (closed || unwritten.isEmpty()) return;
+            batch = unwritten.toArray(new ByteBuffer[0]);
+            unwritten.clear();
+            force = forceUnwritten;
+            forceUnwritten = false;
+            out = channel; // Only replaced on this thread, callers don't wait for the disk
+        }
+        try {
+            while (batch[batch.length - 1].hasRemaining()) out.write(batch);
+            if (force) out.force(false); // Typed text must survive a crash
+        } catch (IOException e) {
+            System.err.println("Error writing outbound queue: " + e.getMessage());
+        }
+    }
+
+    private void submit(Runnable task) {
+        try {
+            writer.submit(task);
+        } catch (RejectedExecutionException e) {
+            System.err.println("Outbound queue closed, change kept in memory only.");
+        }
+    }
+
+    private synchronized void rewriteQuietly() {
+        if (closed || file == null) return;
+        try {
+            rewrite();
+        } catch (IOException e) {
+            System.err.println("Error compacting outbound queue: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replace the file with one holding only the pending messages
+     */
+    private void rewrite() throws IOException {
+        if (channel != null) channel.close();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Entry entry : pending.values()) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+                try (DataOutputStream data = new DataOutputStream(bytes)) {
+                    data.writeByte(ENQ);
+                    data.writeLong(entry.id());
+                    data.writeUTF(entry.recipient());
+                    data.writeUTF(entry.text());
+                    data.writeInt(entry.attempts());
+                }
+                ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bytes.size());
+                record.putInt(bytes.size()).put(bytes.toByteArray()).flip();
+                while (record.hasRemaining()) out.write(record);
+            }
+            out.force(false);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Write what's queued and close the file, pending messages stay on disk for the next run
+     */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(2, TimeUnit.SECONDS)) {
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closed = true;
+            try {
+                if (channel != null) channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing outbound queue: " + e.getMessage());
+            }
+            LockFile.release(lock);
+            lock = null;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.unilabs.chatroom_clientfx.model.relay;
+
+import com.unilabs.chatroom_clientfx.model.dto.RelayMessageDTO;
+import com.unilabs.chatroom_clientfx.model.dto.RelayMessageStreamDecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Non-blocking relay client, every call is an HttpClient.sendAsync composed with CompletableFutures
+ * No thread is held while a request (or a long-poll) is in flight, and everything in flight can be cancelled.
+ *
+ * Polls carry a cursor: after=<seq> of the newest numbered message we accepted, which also acknowledges
+ * everything up to it so the relay only has to return the delta. The cursor only moves once a poll was fully
+ * decoded, a failed poll is simply asked for again, and anything at or below the cursor is dropped as a duplicate.
+ * It survives disconnects, the inbox belongs to our UUID whichever server we talk to.
+ *
+ * Failures complete the futures exceptionally: IOException for transport errors,
+ * {@link RelayStatusException} for unexpected HTTP statuses, IllegalArgumentException for malformed poll bodies.
+ */
+public class AsyncRelayClient {
+
+    // Header the relay echoes back when it honoured the "wait" parameter
+    private static final String LONG_POLL_HEADER = "X-Long-Poll";
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+
+    /**
+     * Result of one poll
+     * @param messages Decoded messages, may be empty
+     * @param longPoll True if the relay held the request (long-poll supported)
+     */
+    public record PollResult(List<RelayMessageDTO> messages, boolean longPoll) {}
+
+    /**
+     * The relay answered with an unexpected HTTP status
+     */
+    public static class RelayStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        public RelayStatusException(int statusCode, String message) {
+            super(message + " Status: " + statusCode);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() { return statusCode; }
+    }
+
+    private final HttpClient httpClient;
+    private final String relayUrl;
+    private final String clientUuid;
+    private final Executor decodeExecutor;
+    private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+    // Validators of the last poll answer, sent back so an unchanged inbox costs a bodiless 304
+    private volatile String pollEtag;
+    private volatile String pollLastModified;
+    private long pollCursor = -1L; // Highest relay seq accepted, guarded by "this"
+
+    /**
+     * @param httpClient Shared HTTP client
+     * @param relayUrl Relay base URL, without trailing '/'
+     * @param clientUuid Our UUID, used as poll recipient
+     * @param decodeExecutor Where poll bodies are decoded (the body is read there as it streams in)
+     */
+    public AsyncRelayClient(HttpClient httpClient, String relayUrl, String clientUuid, Executor decodeExecutor) {
+        this.httpClient = httpClient;
+        this.relayUrl = relayUrl;
+        this.clientUuid = clientUuid;
+        this.decodeExecutor = decodeExecutor;
+    }
+
+    /**
+     * Poll our inbox
+     * @param waitSeconds How long the relay may hold the request open waiting for messages, 0 for an immediate answer
+     * @return The decoded messages, cancelling it aborts the HTTP exchange
+     */
+    public CompletableFuture<PollResult> poll(int waitSeconds) {
+        long cursor = getPollCursor();
+        String query = "?recipient=" + URLEncoder.encode(clientUuid, StandardCharsets.UTF_8)
+                + (cursor >= 0 ? "&after=" + cursor : "")
+                + (waitSeconds > 0 ? "&wait=" + waitSeconds : "");
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(relayUrl + "/get_messages.php" + query))
+                .GET()
+                .timeout(REQUEST_TIMEOUT.plusSeconds(waitSeconds)); // Shorter timeout for polling, plus the long-poll wait
+        String etag = pollEtag;
+        String lastModified = pollLastModified;
+        if (etag != null) builder.header("If-None-Match", etag);
+        if (lastModified != null) builder.header("If-Modified-Since", lastModified);
+        HttpRequest request = builder.build();
+
+        CompletableFuture<HttpResponse<InputStream>> exchange = track(httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()));
+        CompletableFuture<PollResult> result = exchange.thenApplyAsync(response -> {
+            boolean longPoll = waitSeconds > 0 && response.headers().firstValue(LONG_POLL_HEADER).isPresent();
+            try (InputStream body = response.body()) {
+                if (response.statusCode() == 304) {
+                    return new PollResult(List.of(), longPoll); // Nothing new, no body to parse
+                }
+                if (response.statusCode() != 200) {
+                    throw new UncheckedIOException(new RelayStatusException(response.statusCode(), "Error polling relay."));
+                }
+                pollEtag = response.headers().firstValue("ETag").orElse(null);
+                pollLastModified = response.headers().firstValue("Last-Modified").orElse(null);
+                // Decode straight from the stream, no String/JSONArray copy of the body
+                List<RelayMessageDTO> messages = new ArrayList<>();
+                RelayMessageStreamDecoder.decode(body, messages::add);
+                return new PollResult(acceptNew(messages), longPoll);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, decodeExecutor);
+        return propagateCancel(result, exchange);
+    }
+
+    /**
+     * Send one message to send_message.php
+     * @param message The message
+     * @return Completes when the relay accepted it (202)
+     */
+    public CompletableFuture<Void> send(RelayMessageDTO message) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(relayUrl + "/send_message.php"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(message.toJsonString(), StandardCharsets.UTF_8))
+                .timeout(REQUEST_TIMEOUT)
+                .build();
+
+        CompletableFuture<HttpResponse<String>> exchange = track(httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)));
+        CompletableFuture<Void> result = exchange.thenApply(response -> {
+            // 202 Accepted is expected success
+            if (response.statusCode() != 202) {
+                throw new UncheckedIOException(new RelayStatusException(response.statusCode(),
+                        "Failed to send relay message. Body: " + response.body() + "."));
+            }
+            return null;
+        });
+        return propagateCancel(result, exchange);
+    }
+
+    /**
+     * Send several messages in one POST (JSON array) to send_messages.php
+     * @param batch Messages in sending order
+     * @return True if accepted, false if the relay has no batch endpoint
+     */
+    public CompletableFuture<Boolean> sendBatch(List<RelayMessageDTO> batch) {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(relayUrl + "/send_messages.php"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(RelayMessageDTO.toJsonArrayString(batch), StandardCharsets.UTF_8))
+                .timeout(REQUEST_TIMEOUT)
+                .build();
+
+        CompletableFuture<HttpResponse<String>> exchange = track(httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)));
+        CompletableFuture<Boolean> result = exchange.thenApply(response -> {
+            int status = response.statusCode();
+            if (status == 202) return true;
+            if (status == 404 || status == 405 || status == 501) return false; // Older relay, no batch endpoint
+            throw new UncheckedIOException(new RelayStatusException(status,
+                    "Failed to send relay batch. Body: " + response.body() + "."));
+        });
+        return propagateCancel(result, exchange);
+    }
+
+    /**
+     * @return Sequence number of the newest message accepted so far, -1 if none was numbered
+     */
+    public synchronized long getPollCursor() {
+        return pollCursor;
+    }
+
+    /**
+     * Drop messages we already have (seq at or below the cursor) and move the cursor past the rest
+     * Messages without a seq (older relay) are always kept
+     */
+    private synchronized List<RelayMessageDTO> acceptNew(List<RelayMessageDTO> messages) {
+        List<RelayMessageDTO> fresh = new ArrayList<>(messages.size());
+        for (RelayMessageDTO message : messages) {
+            if (message.hasSeq()) {
+                if (message.getSeq() <= pollCursor) continue; // Duplicate, e.g. re-sent after a failed poll
+                pollCursor = message.getSeq();
+            }
+            fresh.add(message);
+        }
+        if (fresh.size() < messages.size()) {
+            System.out.println("Dropped " + (messages.size() - fresh.size()) + " duplicate relay messages.");
+        }
+        return fresh;
+    }
+
+    /**
+     * Abort every request still in flight (disconnect/shutdown)
+     */
+    public void cancelAll() {
+        for (CompletableFuture<?> future : inFlight) {
+            future.cancel(true);
+        }
+        inFlight.clear();
+    }
+
+    /**
+     * Unwrap the cause a relay future failed with
+     * @param error Throwable from whenComplete/handle
+     * @return The underlying cause
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException || cause instanceof UncheckedIOException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private <T> CompletableFuture<T> track(CompletableFuture<T> exchange) {
+        inFlight.add(exchange);
+        exchange.whenComplete((value, error) -> inFlight.remove(exchange));
+        return exchange;
+    }
+
+    private static <T> CompletableFuture<T> propagateCancel(CompletableFuture<T> result, CompletableFuture<?> exchange) {
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) exchange.cancel(true);
+        });
+        return result;
+    }
+}
@@ -0,0 +1,164 @@
+package com.unilabs.chatroom_clientfx.model.relay;
+
+import com.unilabs.chatroom_clientfx.model.dto.RelayMessageDTO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces relay sends: messages queued within a short window go out as one batched POST
+ * Only one flush is in flight at a time (the next one starts when it completes), so messages keep their order.
+ * Producers add to a lock-free queue, the single flush chain is its only consumer. When a send fails, everything
+ * queued behind it fails with it, so a retry can't be overtaken by newer messages.
+ * If the relay says it can't take batches we switch to one POST per message for good.
+ */
+public class RelaySendQueue {
+
+    /**
+     * How the relay answered a batched send
+     */
+    public enum BatchResult { SENT, UNSUPPORTED, FAILED }
+
+    /**
+     * The actual HTTP calls, asynchronous, the futures must not fail (failures map to FAILED / false)
+     */
+    public interface Transport {
+        CompletableFuture<BatchResult> sendBatch(List<RelayMessageDTO> batch);
+
+        CompletableFuture<Boolean> send(RelayMessageDTO message);
+    }
+
+    private final ScheduledExecutorService executor;
+    private final Transport transport;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final Consumer<List<RelayMessageDTO>> onFailure;
+
+    private final Queue<RelayMessageDTO> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private volatile boolean batchSupported = true;
+
+    /**
+     * @param executor Executor that runs the coalescing window timer
+     * @param transport Performs the sends
+     * @param windowMillis How long to wait for more messages before sending
+     * @param maxBatchSize Maximum messages per POST
+     * @param onFailure Called with the messages that could not be sent
+     */
+    public RelaySendQueue(ScheduledExecutorService executor, Transport transport, long windowMillis, int maxBatchSize,
+                          Consumer<List<RelayMessageDTO>> onFailure) {
+        this.executor = executor;
+        this.transport = transport;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.onFailure = onFailure;
+    }
+
+    /**
+     * Queue a message, never blocks
+     * @param message The message to send
+     */
+    public void submit(RelayMessageDTO message) {
+        pending.add(message);
+        scheduleFlush(windowMillis);
+    }
+
+    /**
+     * Forget queued messages (e.g. on disconnect), a send already in flight still completes
+     * @return The messages that were dropped, in order
+     */
+    public List<RelayMessageDTO> clear() {
+        List<RelayMessageDTO> dropped = new ArrayList<>();
+        RelayMessageDTO message;
+        while ((message = pending.poll()) != null) {
+            dropped.add(message);
+        }
+        return dropped;
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (!flushScheduled.compareAndSet(false, true)) return; // The scheduled flush will pick it up
+        try {
+            executor.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            flushScheduled.set(false);
+            System.err.println("Relay send queue stopped, dropping " + pending.size() + " messages.");
+            pending.clear();
+        }
+    }
+
+    private void flush() {
+        List<RelayMessageDTO> batch = new ArrayList<>();
+        RelayMessageDTO message;
+        while (batch.size() < maxBatchSize && (message = pending.poll()) != null) {
+            batch.add(message);
+        }
+
+        CompletableFuture<Void> sent;
+        try {
+            sent = batch.isEmpty() ? CompletableFuture.completedFuture(null) : sendInOrder(batch);
+        } catch (Exception e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        // The flag stays set until the sends complete, so the next flush can't overtake this one
+        sent.whenComplete((ignored, error) -> {
+            if (error != null) {
+                System.err.println("Unexpected error flushing relay send queue: " + error.getMessage());
+                onFailure.accept(withQueuedBehind(batch));
+            }
+            flushScheduled.set(false);
+            if (!pending.isEmpty()) {
+                scheduleFlush(0); // More arrived (or batch was full), no need to wait another window
+            }
+        });
+    }
+
+    private CompletableFuture<Void> sendInOrder(List<RelayMessageDTO> batch) {
+        if (batch.size() > 1 && batchSupported) {
+            return transport.sendBatch(batch).thenCompose(result -> {
+                if (result == BatchResult.SENT) return CompletableFuture.completedFuture(null);
+                if (result == BatchResult.FAILED) {
+                    onFailure.accept(withQueuedBehind(batch));
+                    return CompletableFuture.completedFuture(null);
+                }
+                System.out.println("Relay does not support batched sends, falling back to single sends.");
+                batchSupported = false;
+                return sendSingles(batch, 0);
+            });
+        }
+        return sendSingles(batch, 0);
+    }
+
+    /**
+     * @param failed Messages that could not be sent
+     * @return Them plus everything queued behind them (taken off the queue), in order
+     */
+    private List<RelayMessageDTO> withQueuedBehind(List<RelayMessageDTO> failed) {
+        List<RelayMessageDTO> all = new ArrayList<>(failed);
+        RelayMessageDTO message;
+        while ((message = pending.poll()) != null) {
+            all.add(message);
+        }
+        return all;
+    }
+
+    private CompletableFuture<Void> sendSingles(List<RelayMessageDTO> batch, int index) {
+        if (index == batch.size()) return CompletableFuture.completedFuture(null);
+        return transport.send(batch.get(index)).thenCompose(ok -> {
+            if (!ok) {
+                // Stop here, sending the rest would break the order
+                onFailure.accept(withQueuedBehind(batch.subList(index, batch.size())));
+                return CompletableFuture.completedFuture(null);
+            }
+            return sendSingles(batch, index + 1);
+        });
+    }
+}
@@ -12,6 +12,7 @@ module com.unilabs.chatroom_clientfx {
     requires com.almasb.fxgl.all;
     requires org.json;
     requires java.net.http;
+    requires jdk.net;
 
     opens com.unilabs.chatroom_clientfx to javafx.graphics;
     opens com.unilabs.chatroom_clientfx.controller to javafx.fxml;
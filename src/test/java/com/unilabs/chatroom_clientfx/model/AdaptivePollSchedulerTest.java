@@ -0,0 +1,99 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptivePollSchedulerTest {
+
+    /**
+     * Records the delay the scheduler asks for but runs every poll right away
+     */
+    private static class RecordingExecutor extends ScheduledThreadPoolExecutor {
+        final List<Long> delays = new CopyOnWriteArrayList<>();
+
+        RecordingExecutor() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            delays.add(unit.toMillis(delay));
+            return super.schedule(command, 0, unit);
+        }
+    }
+
+    /**
+     * Runs the scheduler for the given number of polls and returns the delays it armed
+     * @param active Decides from the poll number (starting at 1) whether that poll saw activity
+     */
+    private static List<Long> run(int polls, IntPredicate active) throws InterruptedException {
+        RecordingExecutor executor = new RecordingExecutor();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger count = new AtomicInteger();
+        AdaptivePollScheduler[] scheduler = new AdaptivePollScheduler[1];
+        scheduler[0] = new AdaptivePollScheduler(executor, () -> {
+            int poll = count.incrementAndGet();
+            if (poll == polls) {
+                scheduler[0].stop();
+                done.countDown();
+            }
+            return CompletableFuture.completedFuture(active.test(poll));
+        }, 10, 80);
+        scheduler[0].start();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        return executor.delays;
+    }
+
+    @Test
+    void quietPollsBackOffUpToTheCeiling() throws InterruptedException {
+        assertEquals(List.of(0L, 20L, 40L, 80L, 80L, 80L), run(6, poll -> false));
+    }
+
+    @Test
+    void activityGoesBackToTheFastDelay() throws InterruptedException {
+        assertEquals(List.of(0L, 20L, 40L, 10L, 20L), run(5, poll -> poll == 3));
+    }
+
+    @Test
+    void activityDuringAPollRearmsFast() throws InterruptedException {
+        RecordingExecutor executor = new RecordingExecutor();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger count = new AtomicInteger();
+        AdaptivePollScheduler[] scheduler = new AdaptivePollScheduler[1];
+        scheduler[0] = new AdaptivePollScheduler(executor, () -> {
+            int poll = count.incrementAndGet();
+            if (poll == 3) scheduler[0].onActivity(); // e.g. the user sent something meanwhile
+            if (poll == 4) {
+                scheduler[0].stop();
+                done.countDown();
+            }
+            return CompletableFuture.completedFuture(false);
+        }, 10, 80);
+        scheduler[0].start();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(List.of(0L, 20L, 40L, 10L), executor.delays);
+    }
+
+    @Test
+    void rejectsInvalidDelays() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new AdaptivePollScheduler(new RecordingExecutor(), () -> CompletableFuture.completedFuture(false), 0, 10));
+        assertThrows(IllegalArgumentException.class,
+                () -> new AdaptivePollScheduler(new RecordingExecutor(), () -> CompletableFuture.completedFuture(false), 20, 10));
+    }
+}
@@ -0,0 +1,109 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import javafx.collections.ListChangeListener;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatHistoryTest {
+
+    // Size ChatHistory accounts for a message of the given length
+    private static long cost(int length) {
+        return 40L + 2L * length;
+    }
+
+    private static List<String> messages(String prefix, int count) {
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) messages.add(prefix + i);
+        return messages;
+    }
+
+    @Test
+    void evictsOldestByCount() {
+        List<String> evicted = new ArrayList<>();
+        ChatHistory history = new ChatHistory(3, Long.MAX_VALUE, evicted::addAll);
+        history.appendAll(List.of("a", "b"));
+        history.appendAll(List.of("c", "d"));
+        assertEquals(List.of("b", "c", "d"), history);
+        assertEquals(List.of("a"), evicted);
+
+        // A batch bigger than the cap keeps its newest part, the rest still reaches the sink
+        history.appendAll(messages("m", 5));
+        assertEquals(List.of("m2", "m3", "m4"), history);
+        assertEquals(List.of("a", "b", "c", "d", "m0", "m1"), evicted);
+    }
+
+    @Test
+    void evictsOldestByBytes() {
+        List<String> evicted = new ArrayList<>();
+        ChatHistory history = new ChatHistory(100, 2 * cost(4), evicted::addAll);
+        history.appendAll(List.of("aaaa", "bbbb"));
+        assertEquals(2, history.size());
+        history.appendAll(List.of("cccc"));
+        assertEquals(List.of("bbbb", "cccc"), history);
+        assertEquals(List.of("aaaa"), evicted);
+
+        // A single message over the byte cap is still kept, on its own
+        String big = "x".repeat(100);
+        history.appendAll(List.of(big));
+        assertEquals(List.of(big), history);
+        assertEquals(List.of("aaaa", "bbbb", "cccc"), evicted);
+    }
+
+    @Test
+    void appendIsOneChange() {
+        ChatHistory history = new ChatHistory(3, Long.MAX_VALUE, null);
+        history.appendAll(List.of("a", "b", "c"));
+
+        List<String> events = new ArrayList<>();
+        history.addListener((ListChangeListener<String>) change -> {
+            events.add("change");
+            while (change.next()) {
+                if (change.wasRemoved()) events.add("removed " + change.getRemoved());
+                if (change.wasAdded()) events.add("added " + change.getAddedSubList());
+            }
+        });
+        history.appendAll(List.of("d", "e"));
+        assertEquals(List.of("change", "removed [a, b]", "added [d, e]"), events);
+        assertEquals(List.of("c", "d", "e"), history);
+
+        history.appendAll(List.of());
+        assertEquals(3, events.size(), "An empty batch fires nothing");
+    }
+
+    @Test
+    void prependDropsNewestAsOneChange() {
+        List<String> evicted = new ArrayList<>();
+        ChatHistory history = new ChatHistory(4, Long.MAX_VALUE, evicted::addAll);
+        history.appendAll(List.of("c", "d", "e"));
+
+        List<String> events = new ArrayList<>();
+        history.addListener((ListChangeListener<String>) change -> {
+            events.add("change");
+            while (change.next()) {
+                if (change.wasRemoved()) events.add("removed " + change.getRemoved());
+                if (change.wasAdded()) events.add("added " + change.getAddedSubList());
+            }
+        });
+        assertEquals(2, history.prependAll(List.of("a", "b")));
+        assertEquals(List.of("a", "b", "c", "d"), history);
+        assertEquals(1, events.stream().filter("change"::equals).count());
+        assertTrue(events.contains("removed [e]"));
+        assertTrue(events.contains("added [a, b]"));
+        assertTrue(evicted.isEmpty(), "Scrollback trimming doesn't go to the eviction sink");
+
+        // More scrollback than fits: the part closest to the history is kept
+        assertEquals(4, history.prependAll(messages("old", 6)));
+        assertEquals(List.of("old2", "old3", "old4", "old5"), history);
+        assertEquals(0, history.prependAll(List.of()));
+    }
+
+    @Test
+    void rejectsInvalidCaps() {
+        assertThrows(IllegalArgumentException.class, () -> new ChatHistory(0, 10, null));
+        assertThrows(IllegalArgumentException.class, () -> new ChatHistory(10, 0, null));
+    }
+}
@@ -0,0 +1,134 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionRacerTest {
+
+    private static final Executor EXECUTOR = ForkJoinPool.commonPool();
+
+    /**
+     * An attempt completed by the test, counts starts and abandons
+     */
+    private static class FakeAttempt implements ConnectionRacer.Attempt {
+        final CompletableFuture<Boolean> outcome = new CompletableFuture<>();
+        final AtomicInteger starts = new AtomicInteger();
+        final AtomicInteger abandons = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+
+        @Override
+        public CompletableFuture<Boolean> start() {
+            starts.incrementAndGet();
+            started.countDown();
+            return outcome;
+        }
+
+        @Override
+        public void abandon() {
+            abandons.incrementAndGet();
+        }
+
+        void awaitStart() throws InterruptedException {
+            assertTrue(started.await(5, TimeUnit.SECONDS), "Attempt was never started");
+        }
+
+        /**
+         * The race result completes before the loser is torn down, wait for it
+         */
+        void awaitAbandons(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (abandons.get() < count) {
+                assertTrue(System.currentTimeMillis() < deadline, "Attempt was never abandoned");
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    private static ConnectionRacer.Winner await(CompletableFuture<ConnectionRacer.Winner> race) throws Exception {
+        return race.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void primaryWinsWithinItsHeadStart() throws Exception {
+        FakeAttempt primary = new FakeAttempt();
+        FakeAttempt secondary = new FakeAttempt();
+        primary.outcome.complete(true);
+        assertEquals(ConnectionRacer.Winner.PRIMARY, await(ConnectionRacer.race(primary, secondary, 50, EXECUTOR)));
+
+        Thread.sleep(150); // Past the head start
+        assertEquals(0, secondary.starts.get(), "A race already won never starts the fallback");
+        assertEquals(0, primary.abandons.get());
+    }
+
+    @Test
+    void failedPrimaryStartsSecondaryRightAway() throws Exception {
+        FakeAttempt primary = new FakeAttempt();
+        FakeAttempt secondary = new FakeAttempt();
+        CompletableFuture<ConnectionRacer.Winner> race = ConnectionRacer.race(primary, secondary, 60_000, EXECUTOR);
+        primary.outcome.complete(false);
+        secondary.awaitStart();
+        secondary.outcome.complete(true);
+        assertEquals(ConnectionRacer.Winner.SECONDARY, await(race));
+        assertEquals(0, secondary.abandons.get());
+    }
+
+    @Test
+    void slowPrimaryIsAbandonedOnceAndTornDownIfItConnectsLate() throws Exception {
+        FakeAttempt primary = new FakeAttempt();
+        FakeAttempt secondary = new FakeAttempt();
+        CompletableFuture<ConnectionRacer.Winner> race = ConnectionRacer.race(primary, secondary, 10, EXECUTOR);
+        secondary.awaitStart();
+        secondary.outcome.complete(true);
+        assertEquals(ConnectionRacer.Winner.SECONDARY, await(race));
+        primary.awaitAbandons(1); // Loser is stopped while still running
+
+        primary.outcome.complete(true); // Connects after losing
+        assertEquals(1, primary.abandons.get(), "Abandoned at most once");
+        assertEquals(0, secondary.abandons.get());
+    }
+
+    @Test
+    void lateSecondaryIsTornDown() throws Exception {
+        FakeAttempt primary = new FakeAttempt();
+        FakeAttempt secondary = new FakeAttempt();
+        CompletableFuture<ConnectionRacer.Winner> race = ConnectionRacer.race(primary, secondary, 0, EXECUTOR);
+        secondary.awaitStart();
+        primary.outcome.complete(true);
+        assertEquals(ConnectionRacer.Winner.PRIMARY, await(race));
+        secondary.awaitAbandons(1);
+
+        secondary.outcome.complete(true);
+        assertEquals(1, secondary.abandons.get());
+        assertEquals(0, primary.abandons.get());
+    }
+
+    @Test
+    void noneWhenEveryAttemptFails() throws Exception {
+        FakeAttempt primary = new FakeAttempt();
+        FakeAttempt throwing = new FakeAttempt() {
+            @Override
+            public CompletableFuture<Boolean> start() {
+                super.start();
+                throw new IllegalStateException("can't even start");
+            }
+        };
+        CompletableFuture<ConnectionRacer.Winner> race = ConnectionRacer.race(primary, throwing, 0, EXECUTOR);
+        throwing.awaitStart();
+        primary.outcome.completeExceptionally(new RuntimeException("refused"));
+        assertEquals(ConnectionRacer.Winner.NONE, await(race));
+        assertEquals(0, primary.abandons.get() + throwing.abandons.get(), "Nothing won, nothing to tear down");
+
+        assertEquals(ConnectionRacer.Winner.NONE, await(ConnectionRacer.race(null, null, 0, EXECUTOR)));
+        FakeAttempt only = new FakeAttempt();
+        only.outcome.complete(true);
+        assertEquals(ConnectionRacer.Winner.SECONDARY, await(ConnectionRacer.race(null, only, 60_000, EXECUTOR)));
+    }
+}
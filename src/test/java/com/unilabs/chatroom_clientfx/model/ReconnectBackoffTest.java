@@ -0,0 +1,66 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReconnectBackoffTest {
+
+    private static final int SAMPLES = 2_000;
+
+    @Test
+    void delaysStayWithinTheDoublingCeiling() {
+        long[] ceilings = {200, 400, 800, 1_000, 1_000}; // base 100 * 2^(n+1), capped at 1000
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            ReconnectBackoff backoff = new ReconnectBackoff(100, 1_000, ceilings.length);
+            for (long ceiling : ceilings) {
+                long delay = backoff.nextDelayMillis();
+                assertTrue(delay >= 0 && delay <= ceiling, "delay " + delay + " over " + ceiling);
+            }
+        }
+    }
+
+    @Test
+    void fullJitterSpreadsFromZero() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 1_000, Integer.MAX_VALUE);
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long sum = 0;
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            backoff.reset();
+            long delay = backoff.nextDelayMillis();
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+            sum += delay;
+        }
+        // Even the first attempt is jittered below the base, and it averages the base
+        assertTrue(min < 20, "min " + min);
+        assertTrue(max > 180, "max " + max);
+        double mean = (double) sum / SAMPLES;
+        assertTrue(mean > 85 && mean < 115, "mean " + mean);
+    }
+
+    @Test
+    void givesUpAfterMaxAttemptsUntilReset() {
+        ReconnectBackoff backoff = new ReconnectBackoff(10, 100, 3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(backoff.nextDelayMillis() >= 0);
+        }
+        assertEquals(3, backoff.attempts());
+        assertEquals(-1, backoff.nextDelayMillis());
+        assertEquals(3, backoff.attempts(), "A refused attempt isn't counted");
+
+        backoff.reset();
+        assertEquals(0, backoff.attempts());
+        assertTrue(backoff.nextDelayMillis() <= 20, "Back to the first ceiling");
+    }
+
+    @Test
+    void hugeAttemptCountsDoNotOverflow() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1_000, 60_000, 100);
+        for (int i = 0; i < 100; i++) {
+            long delay = backoff.nextDelayMillis();
+            assertTrue(delay >= 0 && delay <= 60_000, "attempt " + i + " delay " + delay);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.unilabs.chatroom_clientfx.model;
+
+import com.unilabs.chatroom_clientfx.model.dto.RelayMessageDTO;
+import com.unilabs.chatroom_clientfx.model.relay.AsyncRelayClient;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelayPollerTest {
+
+    /**
+     * Hands every poll to the test, which completes it
+     */
+    private static class ScriptedRelayClient extends AsyncRelayClient {
+        final BlockingQueue<CompletableFuture<PollResult>> polls = new LinkedBlockingQueue<>();
+
+        ScriptedRelayClient() {
+            super(null, "http://relay.test", "me", Runnable::run);
+        }
+
+        @Override
+        public CompletableFuture<PollResult> poll(int waitSeconds) {
+            CompletableFuture<PollResult> poll = new CompletableFuture<>();
+            polls.add(poll);
+            return poll;
+        }
+
+        CompletableFuture<PollResult> nextPoll() throws InterruptedException {
+            CompletableFuture<PollResult> poll = polls.poll(5, TimeUnit.SECONDS);
+            assertNotNull(poll, "No poll was armed");
+            return poll;
+        }
+    }
+
+    /**
+     * Records the message texts and errors it gets
+     */
+    private static class RecordingSubscriber implements RelayPoller.Subscriber {
+        final List<String> messages = new CopyOnWriteArrayList<>();
+        final List<Throwable> errors = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onMessages(List<RelayMessageDTO> batch) {
+            batch.forEach(message -> messages.add(message.getMessage()));
+        }
+
+        @Override
+        public void onPollError(Throwable cause) {
+            errors.add(cause);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    private static RelayMessageDTO from(String sender, String text) {
+        return new RelayMessageDTO(sender, "me", text, "chat");
+    }
+
+    private static AsyncRelayClient.PollResult held(RelayMessageDTO... messages) {
+        return new AsyncRelayClient.PollResult(List.of(messages), true);
+    }
+
+    @Test
+    void routesBySenderAndHoldsForLateSubscribers() throws InterruptedException {
+        ScriptedRelayClient client = new ScriptedRelayClient();
+        RelayPoller poller = new RelayPoller(client, 25, 10, 80, 60_000);
+        RecordingSubscriber a = new RecordingSubscriber();
+        poller.subscribe("A", a);
+
+        client.nextPoll().complete(held(from("A", "a1"), from("B", "b1"), from("A", "a2"), from(null, "lost")));
+        assertEquals(List.of("a1", "a2"), a.messages);
+
+        client.nextPoll().complete(held(from("B", "b2")));
+        RecordingSubscriber b = new RecordingSubscriber();
+        poller.subscribe("B", b);
+        assertEquals(List.of("b1", "b2"), b.messages, "Held in order until B subscribed");
+        poller.shutdown();
+    }
+
+    @Test
+    void holdHandsTheRestToTheNextSubscriber() throws InterruptedException {
+        ScriptedRelayClient client = new ScriptedRelayClient();
+        RelayPoller poller = new RelayPoller(client, 25, 10, 80, 60_000);
+        RecordingSubscriber handshake = new RecordingSubscriber();
+        poller.subscribe("A", handshake);
+        client.nextPoll().complete(held(from("A", "a1"), from("A", "a2")));
+        assertEquals(List.of("a1", "a2"), handshake.messages);
+
+        // The handshake only needed a1, the session takes a2 and whatever arrives until it subscribes
+        poller.hold("A", handshake, List.of(from("A", "a2")));
+        client.nextPoll().complete(held(from("A", "a3")));
+        RecordingSubscriber session = new RecordingSubscriber();
+        poller.subscribe("A", session);
+        assertEquals(List.of("a2", "a3"), session.messages);
+        assertEquals(List.of("a1", "a2"), handshake.messages);
+
+        // A stale hold from the replaced subscriber doesn't unsubscribe the new one
+        poller.hold("A", handshake, List.of());
+        client.nextPoll().complete(held(from("A", "a4")));
+        assertEquals(List.of("a2", "a3", "a4"), session.messages);
+        poller.shutdown();
+    }
+
+    @Test
+    void heldMessagesAreBounded() throws InterruptedException {
+        ScriptedRelayClient client = new ScriptedRelayClient();
+        RelayPoller poller = new RelayPoller(client, 25, 10, 80, 60_000);
+        poller.subscribe("me", new RecordingSubscriber());
+
+        // Strangers posting to our inbox: only the most recently held servers are kept
+        for (int i = 0; i <= RelayPoller.MAX_HELD_SERVERS; i++) {
+            client.nextPoll().complete(held(from("S" + i, "s" + i)));
+        }
+        assertEquals(RelayPoller.MAX_HELD_SERVERS, poller.heldCount());
+        RecordingSubscriber first = new RecordingSubscriber();
+        poller.subscribe("S0", first);
+        assertTrue(first.messages.isEmpty(), "The longest held server made room");
+
+        // Floods keep each server's newest, the total cap takes from the longest held servers first
+        for (String sender : List.of("F", "G")) {
+            RelayMessageDTO[] flood = new RelayMessageDTO[RelayPoller.MAX_HELD_PER_SERVER + 1];
+            for (int i = 0; i < flood.length; i++) flood[i] = from(sender, sender + i);
+            client.nextPoll().complete(held(flood));
+        }
+        assertEquals(RelayPoller.MAX_HELD_MESSAGES, poller.heldCount());
+        RecordingSubscriber older = new RecordingSubscriber();
+        poller.subscribe("S" + RelayPoller.MAX_HELD_SERVERS, older);
+        assertTrue(older.messages.isEmpty(), "Taken by the total cap");
+        RecordingSubscriber flooded = new RecordingSubscriber();
+        poller.subscribe("F", flooded);
+        assertEquals(RelayPoller.MAX_HELD_PER_SERVER, flooded.messages.size());
+        assertEquals("F1", flooded.messages.get(0));
+        assertEquals("F" + RelayPoller.MAX_HELD_PER_SERVER, flooded.messages.get(flooded.messages.size() - 1));
+        poller.shutdown();
+    }
+
+    @Test
+    void heldMessagesExpire() throws InterruptedException {
+        ScriptedRelayClient client = new ScriptedRelayClient();
+        RelayPoller poller = new RelayPoller(client, 25, 10, 80, 50);
+        poller.subscribe("me", new RecordingSubscriber());
+        client.nextPoll().complete(held(from("A", "a1")));
+        assertEquals(1, poller.heldCount());
+
+        Thread.sleep(100);
+        RecordingSubscriber late = new RecordingSubscriber();
+        poller.subscribe("A", late);
+        assertTrue(late.messages.isEmpty(), "Nobody subscribed within the TTL");
+        assertEquals(0, poller.heldCount());
+        poller.shutdown();
+    }
+
+    @Test
+    void failedPollEndsEverySubscription() throws InterruptedException {
+        ScriptedRelayClient client = new ScriptedRelayClient();
+        RelayPoller poller = new RelayPoller(client, 25, 10, 80, 60_000);
+        RecordingSubscriber a = new RecordingSubscriber();
+        RecordingSubscriber b = new RecordingSubscriber();
+        poller.subscribe("A", a);
+        poller.subscribe("B", b);
+
+        IOException down = new IOException("relay down");
+        client.nextPoll().completeExceptionally(down);
+        assertEquals(List.of(down), a.errors);
+        assertEquals(List.of(down), b.errors);
+        Thread.sleep(50);
+        assertTrue(client.polls.isEmpty(), "The loop stopped");
+
+        // Messages of an ended subscription no longer reach it, a new subscribe starts the loop again
+        RecordingSubscriber again = new RecordingSubscriber();
+        poller.subscribe("A", again);
+        client.nextPoll().complete(held(from("A", "a1")));
+        assertEquals(List.of("a1"), again.messages);
+        assertTrue(a.messages.isEmpty());
+        poller.shutdown();
+    }
+
+    @Test
+    void malformedAnswersAreReportedOnceAndPollingGoesOn() throws InterruptedException {
+        ScriptedRelayClient client = new ScriptedRelayClient();
+        RelayPoller poller = new RelayPoller(client, 25, 10, 80, 60_000);
+        RecordingSubscriber a = new RecordingSubscriber();
+        poller.subscribe("A", a);
+
+        client.nextPoll().completeExceptionally(new IllegalArgumentException("bad json"));
+        client.nextPoll().completeExceptionally(new IllegalArgumentException("bad json"));
+        client.nextPoll().complete(held(from("A", "a1")));
+        await(() -> !a.messages.isEmpty()); // Retries run on the poller's timer, it may pick up the answer
+        assertEquals(1, a.errors.size(), "Once per streak");
+        assertInstanceOf(IllegalArgumentException.class, a.errors.get(0));
+        assertEquals(List.of("a1"), a.messages);
+
+        client.nextPoll().completeExceptionally(new IllegalArgumentException("bad again"));
+        client.nextPoll(); // Still polling
+        assertEquals(2, a.errors.size(), "A new streak is reported again");
+        poller.shutdown();
+    }
+
+    @Test
+    void lastUnsubscribeCancelsThePoll() throws InterruptedException {
+        ScriptedRelayClient client = new ScriptedRelayClient();
+        RelayPoller poller = new RelayPoller(client, 25, 10, 80, 60_000);
+        RecordingSubscriber a = new RecordingSubscriber();
+        RecordingSubscriber b = new RecordingSubscriber();
+        poller.subscribe("A", a);
+        poller.subscribe("B", b);
+        CompletableFuture<AsyncRelayClient.PollResult> poll = client.nextPoll();
+
+        poller.unsubscribe(a);
+        assertFalse(poll.isDone(), "B still listens");
+        poller.unsubscribe(b);
+        assertTrue(poll.isCancelled());
+        assertTrue(a.errors.isEmpty() && b.errors.isEmpty(), "Stopping isn't a connection error");
+    }
+}
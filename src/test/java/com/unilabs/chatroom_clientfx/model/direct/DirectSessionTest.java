@@ -0,0 +1,282 @@
+package com.unilabs.chatroom_clientfx.model.direct;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectSessionTest {
+
+    /**
+     * Records what the session hands to its listener
+     */
+    private static class RecordingListener implements DirectSession.Listener {
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> controls = new LinkedBlockingQueue<>();
+        final BlockingQueue<Long> roundTrips = new LinkedBlockingQueue<>();
+        final BlockingQueue<IOException> closes = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onLine(DirectSession session, String line) {
+            lines.add(line);
+        }
+
+        @Override
+        public void onClosed(DirectSession session, IOException cause) {
+            closes.add(cause != null ? cause : new IOException("Closed locally"));
+        }
+
+        @Override
+        public void onControl(DirectSession session, String payload) {
+            controls.add(payload);
+        }
+
+        @Override
+        public void onHeartbeat(DirectSession session, long rttMillis) {
+            roundTrips.add(rttMillis);
+        }
+    }
+
+    /**
+     * Reads one text line byte by byte, so nothing after it (frames) is buffered away
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) throw new IOException("Closed mid-line");
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    private static FrameCodec.Frame readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        byte[] rest = new byte[length];
+        in.readFully(rest);
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + length).putInt(length).put(rest).flip();
+        List<FrameCodec.Frame> frames = new ArrayList<>();
+        new FrameCodec().decode(frame, frames::add);
+        return frames.get(0);
+    }
+
+    /**
+     * A frame as the server would write it, numbered by the sender
+     */
+    private static byte[] frame(byte type, long seq, String payload) {
+        ByteBuffer frame = FrameCodec.encode(type, payload);
+        FrameCodec.stampSeq(frame, seq);
+        byte[] out = new byte[frame.remaining()];
+        frame.get(out);
+        return out;
+    }
+
+    /**
+     * Server side of the handshake, offering and confirming binary framing
+     */
+    private static void acceptBinary(DirectSession session, InputStream in, OutputStream out) throws Exception {
+        readLine(in);
+        readLine(in);
+        out.write("OK FRAMING=binary/1\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        session.handshakeFuture().get(5, TimeUnit.SECONDS);
+        assertEquals("SWITCH binary/1", readLine(in));
+        out.write("SWITCHED binary/1\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static ServerSocket listen() throws IOException {
+        return new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    }
+
+    private static DirectSession open(DirectIoLoop loop, ServerSocket server, boolean binaryFraming,
+                                      DirectSession.Listener listener) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        return DirectSession.open(loop, address, "uuid-1", "nick", 5_000, binaryFraming, listener);
+    }
+
+    @Test
+    void switchesToBinaryWhenTheServerOffersIt() throws Exception {
+        try (DirectIoLoop loop = new DirectIoLoop("test-io"); ServerSocket server = listen()) {
+            RecordingListener listener = new RecordingListener();
+            DirectSession session = open(loop, server, true, listener);
+            try (Socket socket = server.accept()) {
+                socket.setSoTimeout(5_000);
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                assertEquals("uuid-1", readLine(in));
+                assertEquals("nick", readLine(in));
+                out.write("OK FRAMING=text,binary/1\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                session.handshakeFuture().get(5, TimeUnit.SECONDS);
+                assertTrue(session.isBinaryFraming());
+                assertEquals("SWITCH binary/1", readLine(in));
+
+                // The confirmation and the first frames in one write, the session must split them
+                ByteArrayOutputStream answer = new ByteArrayOutputStream();
+                answer.write("SWITCHED binary/1\n".getBytes(StandardCharsets.UTF_8));
+                answer.write(frame(FrameCodec.TYPE_CHAT, 1, "multi\nline"));
+                answer.write(frame(FrameCodec.TYPE_CHAT, 1, "multi\nline")); // Duplicate
+                answer.write(frame(FrameCodec.TYPE_CONTROL, 0, "kick"));
+                answer.write(frame(FrameCodec.TYPE_CHAT, 2, "second"));
+                out.write(answer.toByteArray());
+                out.flush();
+                assertEquals("multi\nline", listener.lines.poll(5, TimeUnit.SECONDS));
+                assertEquals("second", listener.lines.poll(5, TimeUnit.SECONDS));
+                assertEquals("kick", listener.controls.poll(5, TimeUnit.SECONDS));
+                assertTrue(listener.lines.isEmpty());
+
+                BlockingQueue<Boolean> written = new LinkedBlockingQueue<>();
+                assertTrue(session.send("hello", written::add));
+                FrameCodec.Frame frame = readFrame(in);
+                assertEquals(FrameCodec.TYPE_CHAT, frame.type());
+                assertEquals("hello", frame.payload());
+                assertEquals(1, frame.seq(), "Stamped when written, starting at one");
+                assertEquals(Boolean.TRUE, written.poll(5, TimeUnit.SECONDS));
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    @Test
+    void staysOnTextWithAPlainOk() throws Exception {
+        try (DirectIoLoop loop = new DirectIoLoop("test-io"); ServerSocket server = listen()) {
+            RecordingListener listener = new RecordingListener();
+            DirectSession session = open(loop, server, true, listener);
+            try (Socket socket = server.accept()) {
+                socket.setSoTimeout(5_000);
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                readLine(in);
+                readLine(in);
+                out.write("OK\nwelcome\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                session.handshakeFuture().get(5, TimeUnit.SECONDS);
+                assertFalse(session.isBinaryFraming());
+                assertFalse(session.startHeartbeat(50, 2), "A text server couldn't tell a ping from chat");
+                assertEquals("welcome", listener.lines.poll(5, TimeUnit.SECONDS));
+
+                session.send("hello", null);
+                assertEquals("hello", readLine(in));
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    @Test
+    void declinesBinaryWhenNotWanted() throws Exception {
+        try (DirectIoLoop loop = new DirectIoLoop("test-io"); ServerSocket server = listen()) {
+            RecordingListener listener = new RecordingListener();
+            DirectSession session = open(loop, server, false, listener);
+            try (Socket socket = server.accept()) {
+                socket.setSoTimeout(5_000);
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                readLine(in);
+                readLine(in);
+                out.write("OK FRAMING=binary/1\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                session.handshakeFuture().get(5, TimeUnit.SECONDS);
+                assertFalse(session.isBinaryFraming());
+
+                session.send("hello", null);
+                assertEquals("hello", readLine(in), "No SWITCH line before the chat");
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    @Test
+    void answersServerPings() throws Exception {
+        try (DirectIoLoop loop = new DirectIoLoop("test-io"); ServerSocket server = listen()) {
+            RecordingListener listener = new RecordingListener();
+            DirectSession session = open(loop, server, true, listener);
+            try (Socket socket = server.accept()) {
+                socket.setSoTimeout(5_000);
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                acceptBinary(session, in, out);
+                out.write(frame(FrameCodec.TYPE_PING, 7, "server-check"));
+                out.flush();
+                FrameCodec.Frame pong = readFrame(in);
+                assertEquals(FrameCodec.TYPE_PONG, pong.type());
+                assertEquals("server-check", pong.payload());
+                assertTrue(listener.lines.isEmpty());
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    @Test
+    void missedPongsCloseTheSession() throws Exception {
+        try (DirectIoLoop loop = new DirectIoLoop("test-io"); ServerSocket server = listen()) {
+            RecordingListener listener = new RecordingListener();
+            DirectSession session = open(loop, server, true, listener);
+            try (Socket socket = server.accept()) {
+                socket.setSoTimeout(5_000);
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                acceptBinary(session, in, out);
+                assertTrue(session.startHeartbeat(50, 2));
+
+                // Answered pings keep it alive and report the round trip
+                for (int i = 0; i < 3; i++) {
+                    FrameCodec.Frame ping = readFrame(in);
+                    assertEquals(FrameCodec.TYPE_PING, ping.type());
+                    out.write(frame(FrameCodec.TYPE_PONG, 0, ping.payload()));
+                    out.flush();
+                    Long rtt = listener.roundTrips.poll(5, TimeUnit.SECONDS);
+                    assertNotNull(rtt);
+                    assertTrue(rtt >= 0 && rtt < 5_000, "rtt " + rtt);
+                }
+                assertTrue(session.isOpen());
+
+                // The server goes quiet while the socket stays up, only the heartbeat can tell
+                IOException cause = listener.closes.poll(5, TimeUnit.SECONDS);
+                assertInstanceOf(SocketTimeoutException.class, cause);
+                assertFalse(session.isOpen());
+            } finally {
+                session.close();
+            }
+        }
+    }
+
+    @Test
+    void rejectedHandshakeFailsTheFuture() throws Exception {
+        try (DirectIoLoop loop = new DirectIoLoop("test-io"); ServerSocket server = listen()) {
+            DirectSession session = open(loop, server, true, new RecordingListener());
+            try (Socket socket = server.accept()) {
+                socket.setSoTimeout(5_000);
+                InputStream in = socket.getInputStream();
+                readLine(in);
+                readLine(in);
+                socket.getOutputStream().write("ERROR nickname taken\n".getBytes(StandardCharsets.UTF_8));
+                Exception error = assertThrows(Exception.class, () -> session.handshakeFuture().get(5, TimeUnit.SECONDS));
+                assertEquals("ERROR nickname taken", error.getCause().getMessage());
+                assertFalse(session.isOpen());
+                assertFalse(session.send("late", written -> fail("Not queued, never reported")));
+            }
+        }
+    }
+}
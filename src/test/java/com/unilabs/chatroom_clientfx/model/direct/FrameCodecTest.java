@@ -0,0 +1,111 @@
+package com.unilabs.chatroom_clientfx.model.direct;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameCodecTest {
+
+    private static ByteBuffer stamped(byte type, String payload, long seq) {
+        ByteBuffer frame = FrameCodec.encode(type, payload);
+        FrameCodec.stampSeq(frame, seq);
+        return frame;
+    }
+
+    private static ByteBuffer concat(ByteBuffer... frames) {
+        int size = 0;
+        for (ByteBuffer frame : frames) size += frame.remaining();
+        ByteBuffer all = ByteBuffer.allocate(size);
+        for (ByteBuffer frame : frames) all.put(frame.duplicate());
+        return all.flip();
+    }
+
+    @Test
+    void roundTrip() throws ProtocolException {
+        ByteBuffer frame = FrameCodec.encode(FrameCodec.TYPE_CHAT, "héllo\nwörld €");
+        assertEquals(0, FrameCodec.seq(frame));
+        FrameCodec.stampSeq(frame, 42);
+        assertEquals(42, FrameCodec.seq(frame));
+        assertEquals(0, frame.position(), "Stamping must not move the buffer");
+
+        List<FrameCodec.Frame> frames = new ArrayList<>();
+        long before = System.currentTimeMillis();
+        new FrameCodec().decode(frame, frames::add);
+        assertEquals(1, frames.size());
+        FrameCodec.Frame decoded = frames.get(0);
+        assertEquals(FrameCodec.TYPE_CHAT, decoded.type());
+        assertEquals(42, decoded.seq());
+        assertEquals("héllo\nwörld €", decoded.payload());
+        assertTrue(decoded.timestampMillis() <= before && decoded.timestampMillis() > before - 60_000);
+        assertFalse(frame.hasRemaining());
+    }
+
+    @Test
+    void emptyPayload() throws ProtocolException {
+        List<FrameCodec.Frame> frames = new ArrayList<>();
+        new FrameCodec().decode(stamped(FrameCodec.TYPE_PING, "", 1), frames::add);
+        assertEquals("", frames.get(0).payload());
+        assertEquals(FrameCodec.TYPE_PING, frames.get(0).type());
+    }
+
+    @Test
+    void severalFramesSplitAnywhere() throws ProtocolException {
+        ByteBuffer stream = concat(
+                stamped(FrameCodec.TYPE_CHAT, "first", 1),
+                stamped(FrameCodec.TYPE_CONTROL, "x".repeat(20_000), 2), // Bigger than the initial pending buffer
+                stamped(FrameCodec.TYPE_PONG, "3", 3));
+        for (int chunk : new int[] {1, 3, 7, 4096, stream.remaining()}) {
+            FrameCodec codec = new FrameCodec();
+            List<FrameCodec.Frame> frames = new ArrayList<>();
+            ByteBuffer in = stream.duplicate();
+            while (in.hasRemaining()) {
+                ByteBuffer part = in.slice(in.position(), Math.min(chunk, in.remaining()));
+                in.position(in.position() + part.remaining());
+                codec.decode(part, frames::add);
+                assertFalse(part.hasRemaining(), "Decode consumes its whole input");
+            }
+            assertEquals(3, frames.size(), "chunk " + chunk);
+            assertEquals("first", frames.get(0).payload());
+            assertEquals("x".repeat(20_000), frames.get(1).payload());
+            assertEquals(FrameCodec.TYPE_CONTROL, frames.get(1).type());
+            assertEquals(3, frames.get(2).seq());
+        }
+    }
+
+    @Test
+    void partialFrameWaitsForTheRest() throws ProtocolException {
+        ByteBuffer frame = stamped(FrameCodec.TYPE_CHAT, "later", 5);
+        FrameCodec codec = new FrameCodec();
+        List<FrameCodec.Frame> frames = new ArrayList<>();
+        codec.decode(frame.slice(0, frame.remaining() - 1), frames::add);
+        assertTrue(frames.isEmpty());
+        codec.decode(frame.slice(frame.remaining() - 1, 1), frames::add);
+        assertEquals("later", frames.get(0).payload());
+    }
+
+    @Test
+    void lengthShorterThanHeaderIsRejected() {
+        ByteBuffer bad = ByteBuffer.allocate(32).putInt(3).put(new byte[28]).flip();
+        assertThrows(ProtocolException.class, () -> new FrameCodec().decode(bad, frame -> fail("No frame expected")));
+    }
+
+    @Test
+    void negativeLengthIsRejected() {
+        ByteBuffer bad = ByteBuffer.allocate(4).putInt(-1).flip();
+        assertThrows(ProtocolException.class, () -> new FrameCodec().decode(bad, frame -> fail("No frame expected")));
+    }
+
+    @Test
+    void oversizedLengthIsRejectedBeforeBuffering() {
+        // Only the length arrived, the codec must not wait for (or allocate) 2 GiB
+        ByteBuffer bad = ByteBuffer.allocate(4).putInt(Integer.MAX_VALUE).flip();
+        assertThrows(ProtocolException.class, () -> new FrameCodec().decode(bad, frame -> fail("No frame expected")));
+        ByteBuffer justOver = ByteBuffer.allocate(4).putInt(1024 * 1024 + 1).flip();
+        assertThrows(ProtocolException.class, () -> new FrameCodec().decode(justOver, frame -> fail("No frame expected")));
+    }
+}
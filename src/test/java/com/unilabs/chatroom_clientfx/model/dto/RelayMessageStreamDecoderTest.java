@@ -0,0 +1,118 @@
+package com.unilabs.chatroom_clientfx.model.dto;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelayMessageStreamDecoderTest {
+
+    private static List<RelayMessageDTO> decode(InputStream body) throws IOException {
+        List<RelayMessageDTO> messages = new ArrayList<>();
+        int count = RelayMessageStreamDecoder.decode(body, messages::add);
+        assertEquals(messages.size(), count);
+        return messages;
+    }
+
+    private static List<RelayMessageDTO> decode(String body) throws IOException {
+        return decode(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Hands out at most a few bytes per read, like a body arriving in small chunks
+     */
+    private static InputStream trickle(String body, int chunk) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, chunk));
+            }
+        };
+    }
+
+    @Test
+    void decodesFieldsAndDefaults() throws IOException {
+        List<RelayMessageDTO> messages = decode("""
+                [{"sender":"s1","recipient":"me","message":"hi","type":"control","seq":7},
+                 {"sender":"s2","extra":{"a":[1,2,{"b":"]"}]},"seq":"8"},
+                 {}]""");
+        assertEquals(3, messages.size());
+        RelayMessageDTO first = messages.get(0);
+        assertEquals("s1", first.getSender());
+        assertEquals("me", first.getRecipient());
+        assertEquals("hi", first.getMessage());
+        assertEquals("control", first.getType());
+        assertEquals(7, first.getSeq());
+
+        RelayMessageDTO second = messages.get(1);
+        assertEquals("s2", second.getSender());
+        assertEquals("", second.getMessage());
+        assertEquals("chat", second.getType());
+        assertEquals(8, second.getSeq());
+
+        assertFalse(messages.get(2).hasSeq());
+    }
+
+    @Test
+    void emptyBodies() throws IOException {
+        assertTrue(decode("").isEmpty());
+        assertTrue(decode(" [ ] ").isEmpty());
+    }
+
+    @Test
+    void decodesEscapes() throws IOException {
+        List<RelayMessageDTO> messages = decode(
+                "[{\"message\":\"q\\\" b\\\\ s\\/ \\b\\f\\n\\r\\t \\u00e9\\u20AC \\ud83d\\ude00\"}]");
+        assertEquals("q\" b\\ s/ \b\f\n\r\t é€ \uD83D\uDE00", messages.get(0).getMessage());
+    }
+
+    @Test
+    void scalarValuesAsText() throws IOException {
+        RelayMessageDTO message = decode("[{\"message\":123,\"type\":null,\"sender\":true}]").get(0);
+        assertEquals("123", message.getMessage());
+        assertEquals("chat", message.getType());
+        assertEquals("true", message.getSender());
+    }
+
+    @Test
+    void escapeSplitAcrossBufferBoundary() throws IOException {
+        // Move the escape over the decoder's 8192 char buffer boundary, one offset at a time
+        for (int pad = 8160; pad < 8200; pad++) {
+            String text = "x".repeat(pad) + "\u00e9\n\"";
+            String body = "[{\"message\":\"" + "x".repeat(pad) + "\\u00e9\\n\\\"\",\"seq\":" + pad + "}]";
+            RelayMessageDTO message = decode(body).get(0);
+            assertEquals(text, message.getMessage(), "pad " + pad);
+            assertEquals(pad, message.getSeq());
+        }
+    }
+
+    @Test
+    void bodyArrivingInSmallChunks() throws IOException {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) body.append(',');
+            body.append("{\"sender\":\"s\",\"message\":\"m").append(i).append(" \\u00fc ü\",\"seq\":").append(i).append('}');
+        }
+        body.append(']');
+        List<RelayMessageDTO> messages = decode(trickle(body.toString(), 3));
+        assertEquals(200, messages.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals("m" + i + " ü ü", messages.get(i).getMessage());
+            assertEquals(i, messages.get(i).getSeq());
+        }
+    }
+
+    @Test
+    void malformedBodies() {
+        for (String body : List.of("{", "[{\"message\":\"open", "[{\"message\":\"\\x\"}]", "[{\"message\":\"\\u12G4\"}]",
+                "[{\"message\" \"a\"}]", "[{\"seq\":}]", "[{}", "[{} {}]")) {
+            assertThrows(IllegalArgumentException.class, () -> decode(body), body);
+        }
+    }
+}
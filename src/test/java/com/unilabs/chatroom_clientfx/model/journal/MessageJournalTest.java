@@ -0,0 +1,117 @@
+package com.unilabs.chatroom_clientfx.model.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private static List<String> messages(int from, int to) {
+        List<String> messages = new ArrayList<>();
+        for (int i = from; i < to; i++) messages.add("message " + i + " ü");
+        return messages;
+    }
+
+    private Path tailSegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("segment-")).sorted()
+                    .reduce((first, second) -> second).orElseThrow();
+        }
+    }
+
+    @Test
+    void appendAndReadAcrossReopen() throws IOException {
+        try (MessageJournal journal = MessageJournal.open(directory, 1024 * 1024, 4)) {
+            journal.append(messages(0, 10));
+            journal.append("single");
+        }
+        try (MessageJournal journal = MessageJournal.open(directory, 1024 * 1024, 4)) {
+            assertEquals(0, journal.firstIndex());
+            assertEquals(11, journal.nextIndex());
+            assertEquals(messages(0, 10), journal.read(0, 10));
+            assertEquals(List.of("message 9 ü", "single"), journal.read(9, 100));
+            assertTrue(journal.read(11, 5).isEmpty());
+        }
+    }
+
+    @Test
+    void tornTrailingRecordIsDropped() throws IOException {
+        try (MessageJournal journal = MessageJournal.open(directory, 1024 * 1024, 4)) {
+            journal.append(messages(0, 5));
+        }
+        // A crash in the middle of an append: the length says 100 bytes, only 3 made it
+        Path tail = tailSegment();
+        long intact = Files.size(tail);
+        ByteBuffer torn = ByteBuffer.allocate(7).putInt(100).put(new byte[] {'a', 'b', 'c'}).flip();
+        Files.write(tail, torn.array(), StandardOpenOption.APPEND);
+
+        try (MessageJournal journal = MessageJournal.open(directory, 1024 * 1024, 4)) {
+            assertEquals(5, journal.nextIndex());
+            assertEquals(intact, Files.size(tail), "Torn bytes are truncated");
+            journal.append("after crash");
+        }
+        try (MessageJournal journal = MessageJournal.open(directory, 1024 * 1024, 4)) {
+            assertEquals(6, journal.nextIndex());
+            List<String> all = journal.read(0, 10);
+            assertEquals(messages(0, 5), all.subList(0, 5));
+            assertEquals("after crash", all.get(5));
+        }
+    }
+
+    @Test
+    void tornLengthHeaderIsDropped() throws IOException {
+        try (MessageJournal journal = MessageJournal.open(directory, 1024 * 1024, 4)) {
+            journal.append(messages(0, 3));
+        }
+        Files.write(tailSegment(), new byte[] {0, 0}, StandardOpenOption.APPEND); // Half a length
+        try (MessageJournal journal = MessageJournal.open(directory, 1024 * 1024, 4)) {
+            assertEquals(3, journal.nextIndex());
+            assertEquals(messages(0, 3), journal.read(0, 10));
+        }
+    }
+
+    @Test
+    void rollsSegmentsAndDropsTheOldest() throws IOException {
+        try (MessageJournal journal = MessageJournal.open(directory, 256, 3)) {
+            journal.append(messages(0, 100));
+        }
+        try (MessageJournal journal = MessageJournal.open(directory, 256, 3)) {
+            assertEquals(100, journal.nextIndex());
+            long first = journal.firstIndex();
+            assertTrue(first > 0, "Oldest segments were deleted");
+            try (Stream<Path> files = Files.list(directory)) {
+                assertTrue(files.filter(file -> file.getFileName().toString().startsWith("segment-")).count() <= 3);
+            }
+            // Reads clamp to what's still on disk and continue across segment files
+            List<String> read = journal.read(0, 1000);
+            assertEquals(messages((int) first, 100), read);
+            assertEquals(messages(95, 100), journal.read(95, 1000));
+        }
+    }
+
+    @Test
+    void secondJournalOnTheSameDirectoryIsRefused() throws IOException {
+        try (MessageJournal journal = MessageJournal.open(directory, 1024 * 1024, 4)) {
+            journal.append("first client");
+            IOException error = assertThrows(IOException.class, () -> MessageJournal.open(directory, 1024 * 1024, 4));
+            assertTrue(error.getMessage().contains("in use"), error.getMessage());
+        }
+        // Free again once the first one closed
+        try (MessageJournal journal = MessageJournal.open(directory, 1024 * 1024, 4)) {
+            assertEquals(List.of("first client"), journal.read(0, 10));
+        }
+    }
+}
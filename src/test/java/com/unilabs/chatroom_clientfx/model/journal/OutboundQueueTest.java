@@ -0,0 +1,134 @@
+package com.unilabs.chatroom_clientfx.model.journal;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+
+    @TempDir
+    Path directory;
+
+    private Path file() {
+        return directory.resolve("outbox.log");
+    }
+
+    private static List<String> texts(List<OutboundQueue.Entry> entries) {
+        return entries.stream().map(OutboundQueue.Entry::text).toList();
+    }
+
+    @Test
+    void pendingSurvivesReopenInOrder() throws IOException {
+        OutboundQueue queue = OutboundQueue.open(file());
+        OutboundQueue.Entry first = queue.enqueue("a", "one");
+        OutboundQueue.Entry second = queue.enqueue("b", "two");
+        OutboundQueue.Entry third = queue.enqueue("a", "three");
+        assertTrue(first.id() < second.id() && second.id() < third.id());
+        queue.close();
+
+        OutboundQueue reopened = OutboundQueue.open(file());
+        assertEquals(3, reopened.size());
+        assertEquals(List.of("one", "three"), texts(reopened.pendingFor("a")));
+        assertEquals(List.of("two"), texts(reopened.pendingFor("b")));
+        assertTrue(reopened.pendingFor("c").isEmpty());
+        // Ids keep increasing after a reopen
+        assertTrue(reopened.enqueue("a", "four").id() > third.id());
+        reopened.close();
+    }
+
+    @Test
+    void ackAndRetryBookkeeping() throws IOException {
+        OutboundQueue queue = OutboundQueue.open(file());
+        OutboundQueue.Entry first = queue.enqueue("a", "one");
+        OutboundQueue.Entry second = queue.enqueue("a", "two");
+        OutboundQueue.Entry third = queue.enqueue("a", "three");
+        queue.ack(List.of(first.id()));
+        queue.ack(List.of(first.id())); // Twice is harmless
+        queue.markRetry(List.of(second.id()));
+        queue.markRetry(List.of(second.id(), 999L)); // Unknown ids are ignored
+        assertEquals(2, queue.size());
+        assertEquals(2, queue.pendingFor("a").get(0).attempts());
+        queue.close();
+
+        OutboundQueue reopened = OutboundQueue.open(file());
+        List<OutboundQueue.Entry> pending = reopened.pendingFor("a");
+        assertEquals(List.of("two", "three"), texts(pending));
+        assertEquals(2, pending.get(0).attempts());
+        assertEquals(0, pending.get(1).attempts());
+        reopened.ack(List.of(second.id(), third.id()));
+        assertEquals(0, reopened.size());
+        reopened.close();
+
+        OutboundQueue empty = OutboundQueue.open(file());
+        assertEquals(0, empty.size());
+        empty.close();
+    }
+
+    @Test
+    void tornTrailingRecordIsDropped() throws IOException {
+        OutboundQueue queue = OutboundQueue.open(file());
+        queue.enqueue("a", "kept");
+        queue.close();
+        // A crash while appending: the length promises more than was written
+        ByteBuffer torn = ByteBuffer.allocate(9).putInt(64).put((byte) 'E').putInt(0).flip();
+        Files.write(file(), torn.array(), StandardOpenOption.APPEND);
+
+        OutboundQueue reopened = OutboundQueue.open(file());
+        assertEquals(List.of("kept"), texts(reopened.pendingFor("a")));
+        reopened.enqueue("a", "next");
+        reopened.close();
+
+        OutboundQueue again = OutboundQueue.open(file());
+        assertEquals(List.of("kept", "next"), texts(again.pendingFor("a")));
+        again.close();
+    }
+
+    @Test
+    void compactsAfterManyAcks() throws IOException {
+        OutboundQueue queue = OutboundQueue.open(file());
+        for (int i = 0; i < 2000; i++) {
+            OutboundQueue.Entry entry = queue.enqueue("a", "message " + i);
+            if (i != 1999) queue.ack(List.of(entry.id()));
+        }
+        queue.close();
+        long compacted = Files.size(file());
+
+        OutboundQueue reopened = OutboundQueue.open(file());
+        assertEquals(List.of("message 1999"), texts(reopened.pendingFor("a")));
+        reopened.close();
+        assertTrue(compacted < 2000 * 20, "File was compacted while running, size " + compacted);
+    }
+
+    @Test
+    void secondQueueOnTheSameFileIsRefused() throws IOException {
+        OutboundQueue queue = OutboundQueue.open(file());
+        queue.enqueue("a", "one");
+        IOException error = assertThrows(IOException.class, () -> OutboundQueue.open(file()));
+        assertTrue(error.getMessage().contains("in use"), error.getMessage());
+        queue.close();
+
+        // Free again once the first one closed, and the refused open didn't rewrite the file
+        OutboundQueue reopened = OutboundQueue.open(file());
+        assertEquals(List.of("one"), texts(reopened.pendingFor("a")));
+        reopened.close();
+    }
+
+    @Test
+    void inMemoryQueueKeepsBookkeeping() {
+        OutboundQueue queue = OutboundQueue.inMemory();
+        OutboundQueue.Entry entry = queue.enqueue("a", "one");
+        queue.markRetry(List.of(entry.id()));
+        assertEquals(1, queue.pendingFor("a").get(0).attempts());
+        queue.ack(List.of(entry.id()));
+        assertEquals(0, queue.size());
+        queue.close();
+    }
+}
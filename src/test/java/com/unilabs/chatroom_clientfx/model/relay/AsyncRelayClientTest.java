@@ -0,0 +1,189 @@
+package com.unilabs.chatroom_clientfx.model.relay;
+
+import com.unilabs.chatroom_clientfx.model.dto.RelayMessageDTO;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncRelayClientTest {
+
+    /**
+     * Answers every request with a canned status, headers and body, and records the request URIs
+     */
+    private static class FakeHttpClient extends HttpClient {
+        final List<URI> requests = new CopyOnWriteArrayList<>();
+        final int status;
+        final String body;
+        final Map<String, List<String>> headers;
+
+        FakeHttpClient(int status, String body, Map<String, List<String>> headers) {
+            this.status = status;
+            this.body = body;
+            this.headers = headers;
+        }
+
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+            requests.add(request.uri());
+            HttpHeaders responseHeaders = HttpHeaders.of(headers, (name, value) -> true);
+            HttpResponse.BodySubscriber<T> subscriber = handler.apply(new HttpResponse.ResponseInfo() {
+                @Override public int statusCode() { return status; }
+                @Override public HttpHeaders headers() { return responseHeaders; }
+                @Override public Version version() { return Version.HTTP_1_1; }
+            });
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override public void request(long n) { }
+                @Override public void cancel() { }
+            });
+            subscriber.onNext(List.of(ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8))));
+            subscriber.onComplete();
+            return subscriber.getBody().toCompletableFuture().thenApply(value -> new HttpResponse<T>() {
+                @Override public int statusCode() { return status; }
+                @Override public HttpRequest request() { return request; }
+                @Override public Optional<HttpResponse<T>> previousResponse() { return Optional.empty(); }
+                @Override public HttpHeaders headers() { return responseHeaders; }
+                @Override public T body() { return value; }
+                @Override public Optional<SSLSession> sslSession() { return Optional.empty(); }
+                @Override public URI uri() { return request.uri(); }
+                @Override public Version version() { return Version.HTTP_1_1; }
+            });
+        }
+
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler,
+                                                                HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+            return sendAsync(request, handler);
+        }
+
+        @Override
+        public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+            return sendAsync(request, handler).join();
+        }
+
+        @Override public Optional<CookieHandler> cookieHandler() { return Optional.empty(); }
+        @Override public Optional<Duration> connectTimeout() { return Optional.empty(); }
+        @Override public Redirect followRedirects() { return Redirect.NEVER; }
+        @Override public Optional<ProxySelector> proxy() { return Optional.empty(); }
+        @Override public SSLContext sslContext() { return null; }
+        @Override public SSLParameters sslParameters() { return null; }
+        @Override public Optional<Authenticator> authenticator() { return Optional.empty(); }
+        @Override public Version version() { return Version.HTTP_1_1; }
+        @Override public Optional<Executor> executor() { return Optional.empty(); }
+    }
+
+    private static final Executor DIRECT = Runnable::run;
+
+    private static AsyncRelayClient client(FakeHttpClient http) {
+        return new AsyncRelayClient(http, "http://relay.test", "me", DIRECT);
+    }
+
+    private static FakeHttpClient answering(int status) {
+        return new FakeHttpClient(status, "", Map.of());
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) {
+        Throwable error = assertThrows(Exception.class, () -> future.get(5, TimeUnit.SECONDS));
+        return AsyncRelayClient.unwrap(error);
+    }
+
+    private static List<RelayMessageDTO> batch() {
+        return List.of(new RelayMessageDTO("me", "them", "a", "chat"), new RelayMessageDTO("me", "them", "b", "chat"));
+    }
+
+    @Test
+    void batchAcceptedOrUnsupported() throws Exception {
+        FakeHttpClient accepted = answering(202);
+        assertTrue(client(accepted).sendBatch(batch()).get(5, TimeUnit.SECONDS));
+        assertEquals("/send_messages.php", accepted.requests.get(0).getPath());
+
+        // Relays without the batch endpoint, the caller falls back to single sends
+        for (int status : new int[] {404, 405, 501}) {
+            assertFalse(client(answering(status)).sendBatch(batch()).get(5, TimeUnit.SECONDS), "status " + status);
+        }
+    }
+
+    @Test
+    void unexpectedStatusFails() {
+        Throwable batchError = failure(client(answering(500)).sendBatch(batch()));
+        assertInstanceOf(AsyncRelayClient.RelayStatusException.class, batchError);
+        assertEquals(500, ((AsyncRelayClient.RelayStatusException) batchError).getStatusCode());
+
+        Throwable sendError = failure(client(answering(400)).send(batch().get(0)));
+        assertEquals(400, ((AsyncRelayClient.RelayStatusException) sendError).getStatusCode());
+
+        assertInstanceOf(AsyncRelayClient.RelayStatusException.class, failure(client(answering(503)).poll(0)));
+    }
+
+    @Test
+    void pollDecodesAndDetectsLongPoll() throws Exception {
+        String body = "[{\"sender\":\"s\",\"recipient\":\"me\",\"message\":\"hi\"}]";
+        FakeHttpClient held = new FakeHttpClient(200, body, Map.of("X-Long-Poll", List.of("1")));
+        AsyncRelayClient.PollResult result = client(held).poll(25).get(5, TimeUnit.SECONDS);
+        assertTrue(result.longPoll());
+        assertEquals(1, result.messages().size());
+        assertEquals("hi", result.messages().get(0).getMessage());
+        String query = held.requests.get(0).getQuery();
+        assertTrue(query.contains("recipient=me") && query.contains("wait=25"), query);
+
+        // No header: the relay answered right away, it doesn't do long-poll
+        FakeHttpClient immediate = new FakeHttpClient(200, body, Map.of());
+        assertFalse(client(immediate).poll(25).get(5, TimeUnit.SECONDS).longPoll());
+        assertFalse(client(immediate).poll(0).get(5, TimeUnit.SECONDS).longPoll());
+        assertFalse(immediate.requests.get(1).getQuery().contains("wait="));
+    }
+
+    @Test
+    void cursorAdvancesAndDropsDuplicates() throws Exception {
+        String body = "[{\"message\":\"one\",\"seq\":1},{\"message\":\"two\",\"seq\":2},{\"message\":\"old relay\"}]";
+        FakeHttpClient http = new FakeHttpClient(200, body, Map.of());
+        AsyncRelayClient client = client(http);
+        assertEquals(-1, client.getPollCursor());
+
+        assertEquals(3, client.poll(0).get(5, TimeUnit.SECONDS).messages().size());
+        assertEquals(2, client.getPollCursor());
+        assertFalse(http.requests.get(0).getQuery().contains("after="));
+
+        // The same answer again: numbered messages are duplicates, unnumbered ones always pass
+        List<RelayMessageDTO> again = client.poll(0).get(5, TimeUnit.SECONDS).messages();
+        assertEquals(List.of("old relay"), again.stream().map(RelayMessageDTO::getMessage).toList());
+        assertTrue(http.requests.get(1).getQuery().contains("after=2"));
+    }
+
+    @Test
+    void malformedPollBodyFailsWithIllegalArgument() {
+        FakeHttpClient broken = new FakeHttpClient(200, "[{\"message\":", Map.of());
+        assertInstanceOf(IllegalArgumentException.class, failure(client(broken).poll(0)));
+    }
+
+    @Test
+    void unwrapFindsTheCause() {
+        IOException cause = new IOException("down");
+        assertSame(cause, AsyncRelayClient.unwrap(new CompletionException(new UncheckedIOException(cause))));
+    }
+}
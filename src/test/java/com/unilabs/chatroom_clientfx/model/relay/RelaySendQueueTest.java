@@ -0,0 +1,176 @@
+package com.unilabs.chatroom_clientfx.model.relay;
+
+import com.unilabs.chatroom_clientfx.model.dto.RelayMessageDTO;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelaySendQueueTest {
+
+    /**
+     * Records every send, answers batches with a fixed result and fails singles for the given texts
+     */
+    private static class FakeTransport implements RelaySendQueue.Transport {
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        final RelaySendQueue.BatchResult batchResult;
+        final Set<String> failing;
+
+        FakeTransport(RelaySendQueue.BatchResult batchResult, Set<String> failing) {
+            this.batchResult = batchResult;
+            this.failing = failing;
+        }
+
+        @Override
+        public CompletableFuture<RelaySendQueue.BatchResult> sendBatch(List<RelayMessageDTO> batch) {
+            calls.add("batch " + texts(batch));
+            return CompletableFuture.completedFuture(batchResult);
+        }
+
+        @Override
+        public CompletableFuture<Boolean> send(RelayMessageDTO message) {
+            calls.add("single " + message.getMessage());
+            return CompletableFuture.completedFuture(!failing.contains(message.getMessage()));
+        }
+    }
+
+    private static RelayMessageDTO message(String text) {
+        return new RelayMessageDTO("me", "them", text, "chat");
+    }
+
+    private static List<String> texts(List<RelayMessageDTO> messages) {
+        return messages.stream().map(RelayMessageDTO::getMessage).toList();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    void coalescesIntoOneBatch() throws InterruptedException {
+        ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+        FakeTransport transport = new FakeTransport(RelaySendQueue.BatchResult.SENT, Set.of());
+        List<List<String>> failures = new CopyOnWriteArrayList<>();
+        RelaySendQueue queue = new RelaySendQueue(executor, transport, 50, 10, failed -> failures.add(texts(failed)));
+        queue.submit(message("a"));
+        queue.submit(message("b"));
+        queue.submit(message("c"));
+        await(() -> !transport.calls.isEmpty());
+        assertEquals(List.of("batch [a, b, c]"), transport.calls);
+
+        // A lone message doesn't need the batch endpoint
+        queue.submit(message("d"));
+        await(() -> transport.calls.size() == 2);
+        assertEquals("single d", transport.calls.get(1));
+        assertTrue(failures.isEmpty());
+        executor.shutdownNow();
+    }
+
+    @Test
+    void unsupportedBatchFallsBackToSinglesForGood() throws InterruptedException {
+        ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+        FakeTransport transport = new FakeTransport(RelaySendQueue.BatchResult.UNSUPPORTED, Set.of());
+        List<List<String>> failures = new CopyOnWriteArrayList<>();
+        RelaySendQueue queue = new RelaySendQueue(executor, transport, 50, 10, failed -> failures.add(texts(failed)));
+        queue.submit(message("a"));
+        queue.submit(message("b"));
+        await(() -> transport.calls.size() == 3);
+        assertEquals(List.of("batch [a, b]", "single a", "single b"), transport.calls);
+
+        queue.submit(message("c"));
+        queue.submit(message("d"));
+        await(() -> transport.calls.size() == 5);
+        assertEquals(List.of("single c", "single d"), transport.calls.subList(3, 5));
+        assertTrue(failures.isEmpty());
+        executor.shutdownNow();
+    }
+
+    @Test
+    void failedBatchIsReportedWhole() throws InterruptedException {
+        ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+        FakeTransport transport = new FakeTransport(RelaySendQueue.BatchResult.FAILED, Set.of());
+        List<List<String>> failures = new CopyOnWriteArrayList<>();
+        RelaySendQueue queue = new RelaySendQueue(executor, transport, 50, 10, failed -> failures.add(texts(failed)));
+        queue.submit(message("a"));
+        queue.submit(message("b"));
+        await(() -> !failures.isEmpty());
+        assertEquals(List.of(List.of("a", "b")), failures);
+        assertEquals(List.of("batch [a, b]"), transport.calls);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void failedSingleStopsAndReportsTheRestInOrder() throws InterruptedException {
+        ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+        FakeTransport transport = new FakeTransport(RelaySendQueue.BatchResult.UNSUPPORTED, Set.of("b"));
+        List<List<String>> failures = new CopyOnWriteArrayList<>();
+        RelaySendQueue queue = new RelaySendQueue(executor, transport, 50, 10, failed -> failures.add(texts(failed)));
+        queue.submit(message("a"));
+        queue.submit(message("b"));
+        queue.submit(message("c"));
+        await(() -> !failures.isEmpty());
+        assertEquals(List.of(List.of("b", "c")), failures);
+        assertEquals(List.of("batch [a, b, c]", "single a", "single b"), transport.calls);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void failureTakesTheMessagesQueuedBehindIt() throws InterruptedException {
+        ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+        CompletableFuture<RelaySendQueue.BatchResult> inFlight = new CompletableFuture<>();
+        List<String> calls = new CopyOnWriteArrayList<>();
+        RelaySendQueue.Transport transport = new RelaySendQueue.Transport() {
+            @Override
+            public CompletableFuture<RelaySendQueue.BatchResult> sendBatch(List<RelayMessageDTO> batch) {
+                calls.add("batch " + texts(batch));
+                return inFlight;
+            }
+
+            @Override
+            public CompletableFuture<Boolean> send(RelayMessageDTO message) {
+                calls.add("single " + message.getMessage());
+                return CompletableFuture.completedFuture(true);
+            }
+        };
+        List<List<String>> failures = new CopyOnWriteArrayList<>();
+        RelaySendQueue queue = new RelaySendQueue(executor, transport, 50, 10, failed -> failures.add(texts(failed)));
+        queue.submit(message("a"));
+        queue.submit(message("b"));
+        await(() -> !calls.isEmpty());
+        queue.submit(message("c")); // Waits behind the batch in flight
+        inFlight.complete(RelaySendQueue.BatchResult.FAILED);
+        await(() -> !failures.isEmpty());
+        assertEquals(List.of(List.of("a", "b", "c")), failures);
+
+        Thread.sleep(100);
+        assertEquals(List.of("batch [a, b]"), calls, "Nothing queued behind a failure goes out ahead of its retry");
+        executor.shutdownNow();
+    }
+
+    @Test
+    void clearDropsQueuedMessages() throws InterruptedException {
+        ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
+        FakeTransport transport = new FakeTransport(RelaySendQueue.BatchResult.SENT, Set.of());
+        List<List<String>> failures = new CopyOnWriteArrayList<>();
+        RelaySendQueue queue = new RelaySendQueue(executor, transport, 50, 10, failed -> failures.add(texts(failed)));
+        queue.submit(message("a"));
+        queue.clear();
+        queue.submit(message("b"));
+        await(() -> !transport.calls.isEmpty());
+        Thread.sleep(100);
+        assertEquals(List.of("single b"), transport.calls);
+        assertTrue(failures.isEmpty());
+        executor.shutdownNow();
+    }
+}